@@ -0,0 +1,276 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Times the commands of Gitlet on a synthetic repository.
+ *
+ *  Usage: java gitlet.Benchmark [OPTION VALUE]... [BENCHMARK]...
+ *  in an empty directory, which becomes the repository (the paths of the
+ *  repository are fixed when Repository is loaded, so one run measures
+ *  one repository).  The options shape it:
+ *
+ *      --files N        working files, spread over ten directories (100)
+ *      --size BYTES     size of each file (1024)
+ *      --depth N        commits on master (100)
+ *      --branches N     branches off master, each a few commits long (4)
+ *      --warmup N       untimed runs of each benchmark (5)
+ *      --iterations N   timed runs of each benchmark (20)
+ *
+ *  and the benchmarks, all of them unless some are named, are
+ *
+ *      add        add . after changing one file
+ *      commit     commit one changed file
+ *      log        log of the whole history
+ *      checkout   switch between master and a branch
+ *      merge      merge a branch with one change on either side
+ *      find       find the message of a commit halfway down master
+ *
+ *  Each run is a whole command in its own RepositorySession, as from the
+ *  command line but without starting a JVM, and its output is discarded.
+ *  Whatever a run needs (changed files, a branch to merge) is set up before
+ *  it starts and is not timed.  For each benchmark we print the throughput,
+ *  latency percentiles and the bytes allocated per run by this thread.
+ *
+ *  @author Anthony Zhang
+ */
+class Benchmark {
+
+    /** The benchmarks, in the order they run. */
+    private static final List<String> BENCHMARKS =
+        List.of("add", "commit", "log", "checkout", "merge", "find");
+    /** Number of commits on each of the branches. */
+    private static final int BRANCH_DEPTH = 3;
+
+    /** The shape of the repository, and the number of runs. */
+    private int files = 100;
+    private int size = 1024;
+    private int depth = 100;
+    private int branches = 4;
+    private int warmup = 5;
+    private int iterations = 20;
+
+    /** Makes the contents of files. */
+    private final Random random = new Random(61);
+    /** Number of files changed so far, which picks the next one. */
+    private int changes;
+    /** Number of commits and branches made so far, which names the next. */
+    private int made;
+
+    public static void main(String[] args) {
+        Benchmark benchmark = new Benchmark();
+        List<String> chosen = benchmark.parse(args);
+        if (chosen == null) {
+            System.out.println("Incorrect Operands");
+            return;
+        }
+        String[] contents = Repository.CWD.list();
+        if (contents == null || contents.length > 0) {
+            System.out.println("Run the benchmark in an empty directory.");
+            return;
+        }
+        benchmark.generate();
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %12s%n", "Benchmark",
+                "ops/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "alloc/op");
+        for (String name : chosen) {
+            benchmark.measure(name);
+        }
+    }
+
+    /** Reads the options in ARGS and returns the benchmarks they name, or
+     *  null if they are not valid. */
+    private List<String> parse(String[] args) {
+        List<String> chosen = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i += 1) {
+                if (BENCHMARKS.contains(args[i])) {
+                    chosen.add(args[i]);
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    return null;
+                }
+                int value = Integer.parseUnsignedInt(args[i + 1]);
+                i += 1;
+                switch (args[i - 1]) {
+                    case "--files":
+                        files = Math.max(1, value);
+                        break;
+                    case "--size":
+                        size = value;
+                        break;
+                    case "--depth":
+                        depth = Math.max(2, value);
+                        break;
+                    case "--branches":
+                        branches = Math.max(1, value);
+                        break;
+                    case "--warmup":
+                        warmup = value;
+                        break;
+                    case "--iterations":
+                        iterations = Math.max(1, value);
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (NumberFormatException excp) {
+            return null;
+        }
+        return chosen.isEmpty() ? BENCHMARKS : chosen;
+    }
+
+    /** Makes the repository: FILES files, DEPTH commits on master changing
+     *  one file each, and BRANCHES branches off its middle. */
+    private void generate() {
+        long start = System.nanoTime();
+        quietly("init");
+        for (int i = 0; i < files; i += 1) {
+            File file = join(Repository.CWD, "d" + (i % 10), "f" + i + ".txt");
+            file.getParentFile().mkdirs();
+            writeContents(file, text(size));
+        }
+        quietly("add", ".");
+        quietly("commit", nextMessage());
+        for (int i = 1; i < depth; i += 1) {
+            if (i == depth / 2) {
+                for (int b = 0; b < branches; b += 1) {
+                    quietly("branch", "branch" + b);
+                }
+            }
+            commitChange();
+        }
+        for (int b = 0; b < branches; b += 1) {
+            quietly("checkout", "branch" + b);
+            for (int i = 0; i < BRANCH_DEPTH; i += 1) {
+                commitChange();
+            }
+        }
+        quietly("checkout", "master");
+        System.out.printf("Made %d commits of %d files of %d bytes in %d ms.%n", made,
+                files, size, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Runs the benchmark NAME and prints its results. */
+    private void measure(String name) {
+        long[] times = new long[iterations];
+        long allocated = 0;
+        for (int i = -warmup; i < iterations; i += 1) {
+            String[] command = setUp(name, i);
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            quietly(command);
+            long time = System.nanoTime() - start;
+            if (i >= 0) {
+                times[i] = time;
+                allocated += allocatedBytes() - bytes;
+            }
+        }
+        tearDown(name);
+        long total = Arrays.stream(times).sum();
+        Arrays.sort(times);
+        System.out.printf("%-10s %10.1f %10.3f %10.3f %10.3f %10.3f %12d%n", name,
+                iterations * 1e9 / total, percentile(times, 50), percentile(times, 90),
+                percentile(times, 99), times[iterations - 1] / 1e6, allocated / iterations);
+    }
+
+    /** Prepares run I of the benchmark NAME and returns its command. */
+    private String[] setUp(String name, int i) {
+        switch (name) {
+            case "add":
+                change();
+                return new String[] {"add", "."};
+            case "commit":
+                quietly("add", change());
+                return new String[] {"commit", nextMessage()};
+            case "log":
+                return new String[] {"log"};
+            case "checkout":
+                return new String[] {"checkout", i % 2 == 0 ? "branch0" : "master"};
+            case "merge":
+                String branch = "merge" + made;
+                quietly("branch", branch);
+                quietly("checkout", branch);
+                commitChange();
+                quietly("checkout", "master");
+                commitChange();
+                return new String[] {"merge", branch};
+            case "find":
+                return new String[] {"find", "commit " + depth / 2};
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    /** Leaves the repository clean after the benchmark NAME. */
+    private void tearDown(String name) {
+        if (name.equals("add")) {
+            quietly("commit", nextMessage());
+        } else if (name.equals("checkout")) {
+            quietly("checkout", "master");
+        }
+    }
+
+    /** Changes one file and commits it. */
+    private void commitChange() {
+        quietly("add", change());
+        quietly("commit", nextMessage());
+    }
+
+    /** Returns the message of the next commit. */
+    private String nextMessage() {
+        String message = "commit " + made;
+        made += 1;
+        return message;
+    }
+
+    /** Rewrites the next file in turn, and returns its name. */
+    private String change() {
+        int i = changes % files;
+        changes += 1;
+        String name = "d" + (i % 10) + "/f" + i + ".txt";
+        writeContents(join(Repository.CWD, name), text(size));
+        return name;
+    }
+
+    /** Returns SIZE bytes of random lines of text. */
+    private byte[] text(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = i % 64 == 63 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        return result;
+    }
+
+    /** Runs the command ARGS, discarding what it prints. */
+    private static void quietly(String... args) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Main.execute(args);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /** Returns the number of bytes this thread has allocated so far. */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+
+    /** Returns the P-th percentile of the sorted TIMES, in milliseconds. */
+    private static double percentile(long[] times, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * times.length) - 1;
+        return times[Math.max(0, rank)] / 1e6;
+    }
+}
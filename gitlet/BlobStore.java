@@ -0,0 +1,557 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** The content-addressed store of file contents in the BLOBS directory.
+ *  A blob is named by the SHA-1 of the exact bytes of the file it was made
+ *  from and holds those bytes zlib-compressed behind a short
+ *  "blob <size>\0" header.  Files are streamed through the hash and the
+ *  compressor in fixed-size pieces, so memory use does not depend on file
+ *  size.  Blobs written before compression was introduced are stored raw
+ *  and are still read transparently.
+ *
+ *  Files of RAW_THRESHOLD bytes or more whose first piece does not compress
+ *  well (media, archives and the like) are stored raw instead, behind a
+ *  "raw <size>\0" header.  Checking out such a blob copies its bytes to
+ *  the working file with FileChannel.transferTo, which the operating
+ *  system can do without passing them through the heap.  Repacking leaves
+ *  these blobs loose so that they keep this fast path.
+ *
+ *  Files of CHUNK_THRESHOLD bytes or more are cut into chunks by the
+ *  Chunker instead, and the blob is a manifest: a "chunks <size>\0" header
+ *  followed by the id and length of each chunk in order.  Chunks are named
+ *  by the SHA-1 of their bytes and kept in the CHUNKS directory, holding
+ *  them zlib-compressed behind a CHUNK_DEFLATED byte or, if they do not
+ *  compress well, as they are behind a CHUNK_RAW byte.  So a chunk is
+ *  stored once however many versions of however many files contain it,
+ *  and an edit to a large file only stores the chunks around it.  The
+ *  chunks of a file are hashed and compressed in parallel.  Manifests
+ *  stay loose too, and are not sent to remotes: the blob is sent whole and
+ *  chunked again on the other side.
+ *
+ *  @author Anthony Zhang
+ */
+class BlobStore {
+
+    /** Size of the buffers used to stream file contents. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Compressed blobs up to this size are kept in memory until we know
+     *  whether the blob already exists; larger ones spill to a temp file. */
+    private static final int SPILL_THRESHOLD = 1 << 20;
+    /** Files this large that do not compress well are stored raw. */
+    private static final long RAW_THRESHOLD = 1 << 20;
+    /** Starts the header in front of the contents of every compressed blob. */
+    private static final String HEADER_PREFIX = "blob ";
+    /** Starts the header in front of the contents of every raw blob. */
+    private static final String RAW_PREFIX = "raw ";
+    /** Files this large are stored as chunks. */
+    private static final long CHUNK_THRESHOLD = 1 << 23;
+    /** Starts the header in front of the chunks listed by a manifest. */
+    private static final String CHUNKS_PREFIX = "chunks ";
+    /** Length of each entry of a manifest: a chunk id and its length. */
+    private static final int MANIFEST_ENTRY = UID_LENGTH / 2 + 4;
+    /** Starts every chunk stored as it is, and every compressed one. */
+    private static final int CHUNK_RAW = 0;
+    private static final int CHUNK_DEFLATED = 1;
+    /** How much of each chunk is compressed to see whether it is worth
+     *  compressing. */
+    private static final int CHUNK_PROBE = 1 << 12;
+    /** How much of a file is read and cut into chunks at a time. */
+    private static final int CHUNK_BATCH = 1 << 24;
+
+    /** Stores the contents of FILE as a blob, unless an identical blob already
+     *  exists, and returns its id. */
+    static String put(File file) {
+        try (InputStream in = Stats.counting(new FileInputStream(file))) {
+            return put(in, file.length(), file.getName());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the SIZE bytes read from IN, the contents of the file NAME, as
+     *  a blob unless an identical blob already exists, and returns its id. */
+    static String put(InputStream in, long size, String name) {
+        if (size >= CHUNK_THRESHOLD) {
+            return putChunked(in, size, name);
+        }
+        Stats.hashed();
+        MessageDigest md = sha1Digest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        SpillBuffer stored = new SpillBuffer();
+        boolean saved = false;
+        try {
+            int n = in.readNBytes(buf, 0, BUFFER_SIZE);
+            boolean raw = size >= RAW_THRESHOLD && !compressesWell(buf, 0, n);
+            OutputStream out = raw ? stored
+                    : new DeflaterOutputStream(stored, deflater, BUFFER_SIZE);
+            out.write(((raw ? RAW_PREFIX : HEADER_PREFIX) + size + "\0")
+                    .getBytes(StandardCharsets.UTF_8));
+            long total = 0;
+            for (; n > 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                out.write(buf, 0, n);
+                total += n;
+            }
+            out.close();
+            if (total != size) {
+                throw error("File %s changed while it was being added.", name);
+            }
+            String id = bytesToUid(md.digest(), 0);
+            File blob = join(Repository.BLOBS, id);
+            if (!blob.exists() && !Pack.contains(id)) {
+                stored.saveAs(blob);
+                saved = true;
+            }
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            /** the deflater is ours, so closing the stream did not free it */
+            deflater.end();
+            if (!saved) {
+                stored.discard();
+            }
+        }
+    }
+
+    /** Stores the SIZE bytes read from IN, the contents of the file NAME, as
+     *  chunks, storing only the chunks that are not stored already, and then
+     *  as a manifest of them unless the blob already exists.  Returns the id
+     *  of the blob. */
+    private static String putChunked(InputStream in, long size, String name) {
+        Stats.hashed();
+        MessageDigest md = sha1Digest();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(manifest);
+        byte[] buf = new byte[CHUNK_BATCH];
+        Repository.CHUNKS.mkdir();
+        try {
+            out.write((CHUNKS_PREFIX + size + "\0").getBytes(StandardCharsets.UTF_8));
+            long total = 0;
+            int len = 0;
+            boolean end = false;
+            while (!end) {
+                int n = in.readNBytes(buf, len, buf.length - len);
+                md.update(buf, len, n);
+                total += n;
+                len += n;
+                end = len < buf.length;
+                /** a chunk is only cut where MAX_SIZE bytes are left, or the
+                 * file ends, so the cuts do not depend on the batches */
+                List<int[]> chunks = new ArrayList<>();
+                int off = 0;
+                while (off < len && (end || len - off >= Chunker.MAX_SIZE)) {
+                    int length = Chunker.cut(buf, off, len - off);
+                    chunks.add(new int[] {off, length});
+                    off += length;
+                }
+                List<String> ids = chunks.parallelStream()
+                        .map(chunk -> putChunk(buf, chunk[0], chunk[1]))
+                        .collect(Collectors.toList());
+                for (int i = 0; i < ids.size(); i += 1) {
+                    out.write(uidToBytes(ids.get(i)));
+                    out.writeInt(chunks.get(i)[1]);
+                }
+                System.arraycopy(buf, off, buf, 0, len - off);
+                len -= off;
+            }
+            if (total != size) {
+                throw error("File %s changed while it was being added.", name);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = bytesToUid(md.digest(), 0);
+        File blob = join(Repository.BLOBS, id);
+        if (!blob.exists() && !Pack.contains(id)) {
+            writeContentsAtomically(blob, manifest.toByteArray());
+        }
+        return id;
+    }
+
+    /** Stores the LEN bytes at OFF in BUF as a chunk, unless it is stored
+     *  already, and returns its id. */
+    private static String putChunk(byte[] buf, int off, int len) {
+        Stats.hashed();
+        MessageDigest md = sha1Digest();
+        md.update(buf, off, len);
+        String id = bytesToUid(md.digest(), 0);
+        File chunk = join(Repository.CHUNKS, id);
+        if (chunk.exists()) {
+            return id;
+        }
+        ByteArrayOutputStream stored = new ByteArrayOutputStream(len + 1);
+        if (!compressesWell(buf, off, Math.min(len, CHUNK_PROBE))) {
+            stored.write(CHUNK_RAW);
+            stored.write(buf, off, len);
+        } else {
+            stored.write(CHUNK_DEFLATED);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try (OutputStream out = new DeflaterOutputStream(stored, deflater)) {
+                out.write(buf, off, len);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                deflater.end();
+            }
+        }
+        writeContentsAtomically(chunk, stored.toByteArray());
+        return id;
+    }
+
+    /** Returns the id the contents of FILE would have as a blob, without
+     *  storing it. */
+    static String hash(File file) {
+        Stats.hashed();
+        MessageDigest md = sha1Digest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = Stats.counting(new FileInputStream(file))) {
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytesToUid(md.digest(), 0);
+    }
+
+    /** Returns true iff the blob ID is stored raw, as a loose file. */
+    static boolean isRaw(String id) {
+        return rawStart(join(Repository.BLOBS, id)) >= 0;
+    }
+
+    /** Returns true iff the blob ID is stored as chunks. */
+    static boolean isChunked(String id) {
+        return manifest(join(Repository.BLOBS, id)) != null;
+    }
+
+    /** Returns the ids of the chunks of the blob ID, in order, or an empty
+     *  list if it is not stored as chunks. */
+    static List<String> chunks(String id) {
+        List<String> chunks = manifest(join(Repository.BLOBS, id));
+        return chunks == null ? Collections.emptyList() : chunks;
+    }
+
+    /** Returns true iff the blob ID is in the store. */
+    static boolean contains(String id) {
+        return join(Repository.BLOBS, id).isFile() || Pack.contains(id);
+    }
+
+    /** Returns a stream over the original contents of the blob ID, which may
+     *  be a loose file or packed. */
+    static InputStream open(String id) {
+        File loose = join(Repository.BLOBS, id);
+        if (!loose.exists()) {
+            InputStream packed = Pack.open(id);
+            if (packed == null) {
+                throw error("Missing blob %s.", id);
+            }
+            return packed;
+        }
+        List<String> chunks = manifest(loose);
+        if (chunks != null) {
+            return openChunks(id, chunks);
+        }
+        try {
+            BufferedInputStream raw = new BufferedInputStream(
+                    Stats.counting(new FileInputStream(loose)), BUFFER_SIZE);
+            int start = rawStart(loose);
+            if (start >= 0) {
+                raw.skipNBytes(start);
+                return raw;
+            }
+            raw.mark(BUFFER_SIZE);
+            int b0 = raw.read();
+            int b1 = raw.read();
+            raw.reset();
+            if (b0 != -1 && b1 != -1 && (b0 & 0x0f) == Deflater.DEFLATED
+                    && ((b0 << 8) | b1) % 31 == 0) {
+                raw.mark(BUFFER_SIZE);
+                InflaterInputStream in = new InflaterInputStream(raw);
+                if (skipHeader(in)) {
+                    return in;
+                }
+                raw.reset();
+            }
+            /** a blob from before blobs were compressed */
+            return raw;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the contents of CHUNKS, the chunks of the blob
+     *  ID, which opens each chunk when the one before it is used up. */
+    private static InputStream openChunks(String id, List<String> chunks) {
+        Iterator<String> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunk = next.next();
+                try {
+                    InputStream in = new BufferedInputStream(Stats.counting(
+                            new FileInputStream(join(Repository.CHUNKS, chunk))), BUFFER_SIZE);
+                    return in.read() == CHUNK_DEFLATED ? new InflaterInputStream(in) : in;
+                } catch (FileNotFoundException excp) {
+                    throw error("Missing chunk %s of blob %s.", chunk, id);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Writes the contents of the blob ID to FILE, replacing it.  A raw
+     *  blob is copied from file to file without reading it into memory. */
+    static void copyTo(String id, File file) {
+        File loose = join(Repository.BLOBS, id);
+        int start = rawStart(loose);
+        if (start >= 0) {
+            try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size();
+                for (long pos = start; pos < size;) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+                Stats.read(size - start);
+                Stats.wrote(size - start);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        try (InputStream in = open(id)) {
+            Stats.wrote(Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of the blob ID to OUT, leaving it open. */
+    static void copyTo(String id, OutputStream out) {
+        try (InputStream in = open(id)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns where the contents start in the loose blob FILE if it is
+     *  stored raw behind a "raw <size>\0" header, or -1 if it is not. */
+    private static int rawStart(File file) {
+        if (file.length() < RAW_THRESHOLD) {
+            return -1;
+        }
+        byte[] head;
+        try (InputStream in = new FileInputStream(file)) {
+            head = in.readNBytes(RAW_PREFIX.length() + 21);
+        } catch (IOException excp) {
+            return -1;
+        }
+        for (int i = 0; i < RAW_PREFIX.length(); i += 1) {
+            if (head[i] != RAW_PREFIX.charAt(i)) {
+                return -1;
+            }
+        }
+        long size = 0;
+        for (int i = RAW_PREFIX.length(); i < head.length; i += 1) {
+            if (head[i] == 0) {
+                /** the size must account for the rest of the file */
+                return size == file.length() - i - 1 ? i + 1 : -1;
+            } else if (head[i] < '0' || head[i] > '9') {
+                return -1;
+            }
+            size = size * 10 + head[i] - '0';
+        }
+        return -1;
+    }
+
+    /** Returns the ids of the chunks listed by the loose blob FILE if it is
+     *  a manifest, or null if it is not. */
+    private static List<String> manifest(File file) {
+        if (file.length() < CHUNKS_PREFIX.length() + 2) {
+            return null;
+        }
+        byte[] contents;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] head = in.readNBytes(CHUNKS_PREFIX.length());
+            if (!new String(head, StandardCharsets.UTF_8).equals(CHUNKS_PREFIX)) {
+                return null;
+            }
+            contents = in.readAllBytes();
+            Stats.read(head.length + contents.length);
+        } catch (IOException excp) {
+            return null;
+        }
+        long size = 0;
+        int start = 0;
+        for (; start < contents.length && contents[start] != 0; start += 1) {
+            if (contents[start] < '0' || contents[start] > '9' || start > 19) {
+                return null;
+            }
+            size = size * 10 + contents[start] - '0';
+        }
+        start += 1;
+        if (start > contents.length || (contents.length - start) % MANIFEST_ENTRY != 0) {
+            return null;
+        }
+        /** the lengths must account for the size */
+        ByteBuffer entries = ByteBuffer.wrap(contents, start, contents.length - start);
+        List<String> chunks = new ArrayList<>();
+        while (entries.hasRemaining()) {
+            chunks.add(bytesToUid(contents, entries.position()));
+            entries.position(entries.position() + UID_LENGTH / 2);
+            size -= entries.getInt();
+        }
+        return size == 0 ? chunks : null;
+    }
+
+    /** Returns true iff the N bytes at OFF in BUF shrink by at least an
+     *  eighth when compressed. */
+    private static boolean compressesWell(byte[] buf, int off, int n) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(buf, off, n);
+            deflater.finish();
+            int length = deflater.deflate(new byte[n]);
+            return deflater.finished() && length < n - n / 8;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Reads the "blob <size>\0" header from IN, returning false if IN does
+     *  not start with one. */
+    private static boolean skipHeader(InputStream in) {
+        try {
+            for (int i = 0; i < HEADER_PREFIX.length(); i += 1) {
+                if (in.read() != HEADER_PREFIX.charAt(i)) {
+                    return false;
+                }
+            }
+            for (int c = in.read(), digits = 0; c != 0; c = in.read(), digits += 1) {
+                if (c < '0' || c > '9' || digits > 19) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns a fresh SHA-1 digest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** An output stream that buffers up to SPILL_THRESHOLD bytes in memory
+     *  and moves everything to a temporary file in BLOBS beyond that. */
+    static class SpillBuffer extends OutputStream {
+        /** Holds the contents until they outgrow SPILL_THRESHOLD. */
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        /** The temporary file, once we have spilled. */
+        private File spillFile;
+        /** Stream to spillFile, once we have spilled. */
+        private OutputStream spill;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spill == null && memory.size() + len > SPILL_THRESHOLD) {
+                spillFile = File.createTempFile("tmp", null, Repository.BLOBS);
+                spill = Files.newOutputStream(spillFile.toPath());
+                memory.writeTo(spill);
+                memory = null;
+            }
+            if (spill != null) {
+                spill.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spill != null) {
+                spill.close();
+            }
+        }
+
+        /** Stores everything written so far as FILE. */
+        void saveAs(File file) throws IOException {
+            if (spillFile == null) {
+                spillFile = File.createTempFile("tmp", null, Repository.BLOBS);
+                Files.write(spillFile.toPath(), memory.toByteArray());
+            }
+            Files.move(spillFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Stats.wrote(file.length());
+        }
+
+        /** Copies everything written so far, once it is closed, to OUT. */
+        void writeTo(OutputStream out) throws IOException {
+            if (spillFile == null) {
+                memory.writeTo(out);
+            } else {
+                Files.copy(spillFile.toPath(), out);
+            }
+        }
+
+        /** Throws away everything written so far, and the temporary file if
+         *  there is one. */
+        void discard() {
+            try {
+                close();
+            } catch (IOException excp) {
+                /** the file is deleted anyway */
+            }
+            if (spillFile != null) {
+                spillFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/** Moves the working directory from the files of one commit to those of
+ *  another.  The two commits' trees are compared with Tree.diff, which
+ *  skips every directory they share, and only files whose blob ids differ
+ *  are written or deleted, so switching between commits that differ in a
+ *  few files costs a few file writes no matter how many files they track.
+ *  Larger batches of writes are spread over a small, fixed number of I/O
+ *  threads.
+ *
+ *  @author Anthony Zhang
+ */
+class Checkout {
+
+    /** Most files written or deleted at the same time. */
+    private static final int IO_THREADS =
+            Math.min(8, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    /** Batches smaller than this are done on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    /** Returns the files that differ between the commits CURRENT and TARGET,
+     *  by file name. */
+    static Map<String, Tree.Change> changes(Commit current, Commit target) {
+        try (Stats.Phase phase = Stats.phase("diff trees")) {
+            return Tree.diff(current.getTreeId(), target.getTreeId());
+        }
+    }
+
+    /** Adds to CHANGES, from Checkout.changes, each file of TARGET that
+     *  CHANGES leaves alone but that was changed or deleted in the working
+     *  directory, so that applying CHANGES restores every file of TARGET.
+     *  The files are compared through the index, so only those whose stat
+     *  data changed are read. */
+    static void addWorkingChanges(Map<String, Tree.Change> changes, Commit target) {
+        Index index = RepositorySession.get().index();
+        for (Map.Entry<String, String> file : target.getAllfiles().entrySet()) {
+            String fileName = file.getKey();
+            if (!changes.containsKey(fileName)
+                    && !file.getValue().equals(index.blobIdOf(fileName))) {
+                changes.put(fileName, new Tree.Change(file.getValue(), file.getValue()));
+            }
+        }
+    }
+
+    /** Returns true iff some file in the working directory is tracked neither
+     *  by the current commit nor by the staging area STAGED but would be
+     *  overwritten by applying CHANGES.  Such a file can only be one that
+     *  CHANGES adds, so the rest of the working directory is not listed. */
+    static boolean untrackedFileInTheWay(Map<String, Tree.Change> changes,
+                                         Map<String, String> staged) {
+        for (Map.Entry<String, Tree.Change> change : changes.entrySet()) {
+            String fileName = change.getKey();
+            if (change.getValue().before == null && !staged.containsKey(fileName)
+                    && join(Repository.CWD, fileName).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Applies CHANGES, from Checkout.changes, to the working files and
+     *  updates the index to match. */
+    static void switchFiles(Map<String, Tree.Change> changes) {
+        try (Stats.Phase phase = Stats.phase("write working tree")) {
+            List<String> toWrite = new ArrayList<>();
+            List<String> toDelete = new ArrayList<>();
+            for (Map.Entry<String, Tree.Change> change : changes.entrySet()) {
+                if (change.getValue().after != null) {
+                    toWrite.add(change.getKey());
+                } else {
+                    toDelete.add(change.getKey());
+                }
+            }
+            /** deletes first, in case a file is replaced by a directory */
+            forEach(toDelete, fileName -> WorkingTree.remove(join(Repository.CWD, fileName)));
+            forEach(toWrite, fileName -> {
+                File file = join(Repository.CWD, fileName);
+                WorkingTree.prepare(file);
+                BlobStore.copyTo(changes.get(fileName).after, file);
+            });
+
+            Index index = RepositorySession.get().index();
+            for (String fileName : toWrite) {
+                index.record(fileName, changes.get(fileName).after);
+            }
+            for (String fileName : toDelete) {
+                index.forget(fileName);
+            }
+        }
+    }
+
+    /** Applies ACTION to each of NAMES, on IO_THREADS threads if there are
+     *  enough of them to be worth it. */
+    private static void forEach(List<String> names, Consumer<String> action) {
+        if (names.size() < PARALLEL_THRESHOLD) {
+            names.forEach(action);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(IO_THREADS);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (String name : names) {
+                pending.add(pool.submit(() -> action.accept(name)));
+            }
+            for (Future<?> task : pending) {
+                task.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while updating the working directory.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.util.Random;
+
+/** Content-defined chunking in the style of FastCDC.  A large file is cut
+ *  into chunks wherever a gear hash of the bytes before the cut has enough
+ *  zero bits, so the cuts follow the contents rather than their offsets: an
+ *  edit changes the chunks around it and shifts the rest without changing
+ *  them.  The hash starts afresh at the beginning of every chunk, looks at
+ *  nothing before MIN_SIZE bytes into it and always cuts at MAX_SIZE.  Up
+ *  to AVG_SIZE it needs more zero bits than past it, which pulls the chunk
+ *  sizes together around AVG_SIZE.
+ *
+ *  The cuts depend on GEAR and the sizes, so changing them does not break
+ *  anything already stored but keeps new chunks from being shared with old
+ *  ones.
+ *
+ *  @author Anthony Zhang
+ */
+class Chunker {
+
+    /** The smallest chunk, except for the last one of a file. */
+    static final int MIN_SIZE = 1 << 14;
+    /** The size chunks are cut at on average. */
+    static final int AVG_SIZE = 1 << 16;
+    /** The largest chunk. */
+    static final int MAX_SIZE = 1 << 18;
+    /** The bits of the hash that must be zero to cut before AVG_SIZE and
+     *  after it.  The high bits are used since they depend on the most
+     *  bytes. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** A random number for each byte value, mixed into the hash. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Returns the length of the chunk starting at OFF in BUF, which holds
+     *  LEN bytes from there.  Unless they are the end of the file, LEN must
+     *  be at least MAX_SIZE. */
+    static int cut(byte[] buf, int off, int len) {
+        if (len <= MIN_SIZE) {
+            return len;
+        }
+        int max = Math.min(len, MAX_SIZE);
+        int normal = Math.min(max, AVG_SIZE);
+        long h = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            h = (h << 1) + GEAR[buf[off + i] & 0xff];
+            if ((h & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i += 1) {
+            h = (h << 1) + GEAR[buf[off + i] & 0xff];
+            if ((h & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+}
@@ -1,14 +1,42 @@
 package gitlet;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
  *  does at a high level.
  *
+ *  Commits are stored in a compact binary format (see encode) and named by
+ *  the SHA-1 of that encoding.  A commit names the root Tree of its files
+ *  rather than listing them, so it shares every unchanged directory with its
+ *  parent; the file map is built from the trees the first time it is asked
+ *  for, so walks over history never build it.  Version 1 commits listed
+ *  their files inline and are still read.  Commits made before
+ *  this format existed were stored with Java serialization; they keep
+ *  their ids and are still read through that path.
+ *
  *  @author Anthony Zhang
  */
 public class Commit implements Serializable {
+    /** The serialVersionUID of the Java-serialized commits of older
+     *  repositories, which must keep matching for them to be readable. */
+    private static final long serialVersionUID = -7814336316434445305L;
+    /** Starts every commit in the binary format ("GCMT"). */
+    private static final int MAGIC = 0x47434d54;
+    /** Version of the binary format. */
+    private static final int VERSION = 2;
+    /** Version of the binary format whose commits list their files inline. */
+    private static final int VERSION_INLINE_FILES = 1;
+    /** First two bytes of a Java serialization stream. */
+    private static final int LEGACY_MAGIC = 0xaced;
+
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -18,63 +46,215 @@ public class Commit implements Serializable {
     /** The message of this Commit. */
     private String message;
     private Date timeStamp;
-    /** mapping for blobs */
+    /** mapping for blobs of commits that hold it themselves: the initial
+     * commit and Java-serialized commits. null for the others */
     private TreeMap<String, String> allfiles;
+    /** the mapping for blobs built from treeId or encodedFiles, held softly
+     * because it can always be built again */
+    private transient SoftReference<TreeMap<String, String>> builtFiles;
     private String parentID1;
     private String parentID2;
-    private String s1;
+    /** the id of this commit, the sha1 of its encoding */
+    private transient String id;
+    /** the id of the root Tree of this commit's files */
+    private transient String treeId;
+    /** the encoding this commit was read from, whose file map starts at filesStart */
+    private transient byte[] encodedFiles;
+    private transient int filesStart;
 
     //this makes the initial commit
     public Commit() {
         this.message = "initial commit";
         this.timeStamp = new Date(0);
         this.allfiles = new TreeMap<String, String>();
+        this.treeId = Tree.write(this.allfiles);
+        this.id = sha1(encode());
     }
 
-    public Commit(String commitMsg) {
+    /** makes a commit with message COMMITMSG whose files are those of PARENT
+     * with CHANGES applied; CHANGES maps file names to new blob ids, or to null
+     * for files that are no longer tracked. SECONDPARENT is null unless this
+     * is a merge commit */
+    public Commit(String commitMsg, Commit parent, String secondParent,
+                  Map<String, String> changes) {
         this.message = commitMsg;
+        this.parentID1 = parent.getId();
+        this.parentID2 = secondParent;
         this.timeStamp = new Date();
-        String activeBranchName = readObject(Repository.HEADBRANCH, String.class);
-        String sha1currentCommit = (String)
-                readObject(Repository.BRANCHES, TreeMap.class).get(activeBranchName);
-        Commit previousCommit =
-                readObject(join(Repository.COMMITS, sha1currentCommit), Commit.class);
-        this.parentID1 = sha1(serialize(previousCommit));
-
-        //Sets up the mapping of files to blobs dataStruct in Commit obj
-        this.allfiles = (TreeMap<String, String>)
-                previousCommit.allfiles.clone();
-        TreeMap<String, String> stagingareaaddTreemap =
-                readObject(Repository.STAGING_AREA_ADD, TreeMap.class);
-        TreeMap<String, String> stagingarearmTreemap =
-                readObject(Repository.STAGING_AREA_RM, TreeMap.class);
-        /** puts all files from staging area into commit obj */
-        for (String key : stagingareaaddTreemap.keySet()) {
-            this.allfiles.put(key, stagingareaaddTreemap.get(key));
+        /** only the trees on the paths of CHANGES are rewritten */
+        this.treeId = Tree.update(parent.getTreeId(), changes);
+        this.id = sha1(encode());
+    }
+
+    /** returns the commit with id ID, whether it is a loose file or packed */
+    public static Commit read(String id) {
+        File loose = join(Repository.COMMITS, id);
+        byte[] bytes;
+        if (loose.exists()) {
+            bytes = readContents(loose);
+        } else {
+            bytes = Pack.read(id);
+            if (bytes == null) {
+                throw error("No commit with that id exists.");
+            }
+        }
+        return decode(id, bytes);
+    }
+
+    /** returns the commit with id ID encoded as BYTES, in either format */
+    static Commit decode(String id, byte[] bytes) {
+        Stats.decoded();
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length >= 2 && (buf.getShort(0) & 0xffff) == LEGACY_MAGIC) {
+            Commit legacy = deserialize(bytes, Commit.class);
+            legacy.id = id;
+            return legacy;
+        }
+        return new Commit(bytes, id);
+    }
+
+    /** the commit whose binary encoding is BYTES and whose id is ID, with only
+     * the parents, timestamp, message and tree id decoded */
+    private Commit(byte[] bytes, String id) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int version = bytes.length < 5 || buf.getInt() != MAGIC ? -1 : buf.get();
+        if (version != VERSION && version != VERSION_INLINE_FILES) {
+            throw error("Unrecognized commit %s.", id);
+        }
+        this.id = id;
+        byte[] parent = new byte[UID_LENGTH / 2];
+        int parents = buf.get();
+        if (parents > 0) {
+            buf.get(parent);
+            this.parentID1 = bytesToUid(parent, 0);
+        }
+        if (parents > 1) {
+            buf.get(parent);
+            this.parentID2 = bytesToUid(parent, 0);
+        }
+        this.timeStamp = new Date(buf.getLong());
+        byte[] msg = new byte[buf.getInt()];
+        buf.get(msg);
+        this.message = new String(msg, StandardCharsets.UTF_8);
+        if (version == VERSION) {
+            buf.get(parent);
+            this.treeId = bytesToUid(parent, 0);
+        } else {
+            this.encodedFiles = bytes;
+            this.filesStart = buf.position();
+        }
+    }
+
+    /** returns the canonical encoding of this commit: MAGIC, VERSION, the
+     * number of parents and their raw ids, the timestamp in milliseconds, the
+     * message, and the raw id of the root tree */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(parentID1 == null ? 0 : parentID2 == null ? 1 : 2);
+            if (parentID1 != null) {
+                out.write(uidToBytes(parentID1));
+            }
+            if (parentID2 != null) {
+                out.write(uidToBytes(parentID2));
+            }
+            out.writeLong(timeStamp.getTime());
+            byte[] msg = message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(msg.length);
+            out.write(msg);
+            out.write(uidToBytes(getTreeId()));
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** writes this commit to the COMMITS directory under its id */
+    public void save() {
+        writeContentsAtomically(join(Repository.COMMITS, id), encode());
+    }
+
+    /** returns true iff there is a commit with the full id ID */
+    public static boolean exists(String id) {
+        return CommitIndex.contains(id);
+    }
+
+    /** returns the ids of all loose and packed commits, in sorted order */
+    public static List<String> allIds() {
+        TreeSet<String> ids = new TreeSet<>(plainFilenamesIn(Repository.COMMITS));
+        /** skips the temporary files of commits being written */
+        ids.removeIf(name -> name.length() != UID_LENGTH);
+        ids.addAll(Pack.ids(Pack.COMMIT));
+        return new ArrayList<>(ids);
+    }
+
+    public synchronized TreeMap<String, String> getAllfiles() {
+        if (this.allfiles != null) {
+            return this.allfiles;
         }
-        /** removes all files that are staged for removal */
-        for (String key : stagingarearmTreemap.keySet()) {
-            this.allfiles.remove(key);
+        TreeMap<String, String> files = builtFiles == null ? null : builtFiles.get();
+        if (files == null && this.treeId != null) {
+            files = Tree.flatten(this.treeId);
+        } else if (files == null) {
+            /** decodes the inline file map */
+            files = new TreeMap<>();
+            ByteBuffer buf = ByteBuffer.wrap(encodedFiles);
+            buf.position(filesStart);
+            byte[] blob = new byte[UID_LENGTH / 2];
+            for (int n = buf.getInt(); n > 0; n -= 1) {
+                byte[] name = new byte[buf.getInt()];
+                buf.get(name);
+                buf.get(blob);
+                files.put(new String(name, StandardCharsets.UTF_8), bytesToUid(blob, 0));
+            }
         }
-        /** clears the adding and removal staging areas and saves them */
-        stagingareaaddTreemap.clear();
-        stagingarearmTreemap.clear();
-        writeObject(Repository.STAGING_AREA_ADD, stagingareaaddTreemap);
-        writeObject(Repository.STAGING_AREA_RM, stagingarearmTreemap);
-        this.s1 = sha1(serialize(this));
+        builtFiles = new SoftReference<>(files);
+        return files;
     }
 
-    public TreeMap<String, String> getAllfiles() {
-        return this.allfiles;
+    /** returns the id of the blob this commit tracks as FILENAME, or null if it
+     * does not track it; reads only the trees on its path */
+    public synchronized String getBlobId(String fileName) {
+        TreeMap<String, String> files = this.allfiles != null ? this.allfiles
+                : builtFiles == null ? null : builtFiles.get();
+        if (files == null && this.treeId != null) {
+            return Tree.lookup(this.treeId, fileName);
+        }
+        return files != null ? files.get(fileName) : getAllfiles().get(fileName);
     }
 
-    public void setParent2(String p2) {
-        this.parentID2 = p2;
-        writeObject(join(Repository.COMMITS, sha1(serialize(this))), Commit.class);
+    /** returns roughly how many bytes this commit keeps in memory, not
+     * counting a file map that can be built again */
+    int weight() {
+        int weight = 256 + 2 * message.length();
+        if (encodedFiles != null) {
+            weight += encodedFiles.length;
+        }
+        if (this.allfiles != null) {
+            weight += 160 * this.allfiles.size();
+        }
+        return weight;
+    }
+
+    /** returns the id of the root Tree this commit names, or null for
+     * commits made before trees existed; unlike getTreeId, stores nothing */
+    String storedTreeId() {
+        return this.treeId;
     }
 
-    public String getSha1() {
-        return this.s1;
+    /** returns the id of the root Tree of this commit's files, first storing
+     * one for commits made before trees existed */
+    public synchronized String getTreeId() {
+        if (this.treeId == null) {
+            this.treeId = Tree.write(getAllfiles());
+        }
+        return this.treeId;
+    }
+
+    public String getId() {
+        return this.id;
     }
 
     public String getMessage() {
@@ -93,4 +273,3 @@ public class Commit implements Serializable {
         return this.parentID2;
     }
 }
-
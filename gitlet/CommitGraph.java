@@ -0,0 +1,421 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** A compact on-disk index of the commit history: for every commit its
+ *  id, the positions of its parents, its generation number and its
+ *  timestamp.  Records are fixed-size and appended in topological order
+ *  (parents always come before their children), so adding a commit is a
+ *  single append and history queries never have to open a Commit file.
+ *
+ *  @author Anthony Zhang
+ */
+class CommitGraph {
+
+    /** Marks the start of a commit-graph file ("CGPH"). */
+    private static final int MAGIC = 0x43475048;
+    /** Version of the record layout below. */
+    private static final int VERSION = 1;
+    /** Size of the file header: MAGIC and VERSION. */
+    private static final int HEADER_SIZE = 8;
+    /** Size of one record: id, parent1, parent2, generation, timestamp. */
+    private static final int RECORD_SIZE = UID_LENGTH / 2 + 4 + 4 + 4 + 8;
+    /** Parent position used when a commit has no such parent. */
+    private static final int NONE = -1;
+    /** Name of the LockFile held while writing the commit-graph file. */
+    private static final String LOCK = "commit-graph";
+
+    /** Commit ids, by position. */
+    private final List<String> ids = new ArrayList<>();
+    /** Maps a commit id to its position. */
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    /** Position of each commit's first and second parent, or NONE. */
+    private int[] parent1 = new int[16];
+    private int[] parent2 = new int[16];
+    /** One more than the largest generation of a commit's parents. */
+    private int[] generation = new int[16];
+    /** Commit time in milliseconds since the epoch. */
+    private long[] timestamp = new long[16];
+
+    /** Returns the commit graph of the current repository, building it from
+     *  the Commits directory first if this repository predates it. */
+    static CommitGraph load() {
+        try (Stats.Phase phase = Stats.phase("load commit graph")) {
+            if (!Repository.COMMIT_GRAPH.exists()) {
+                CommitGraph graph = rebuild();
+                graph.writeAll();
+                return graph;
+            }
+            CommitGraph graph = new CommitGraph();
+            ByteBuffer buf = ByteBuffer.wrap(readContents(Repository.COMMIT_GRAPH));
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("Unrecognized commit-graph file.");
+            }
+            byte[] id = new byte[UID_LENGTH / 2];
+            while (buf.remaining() >= RECORD_SIZE) {
+                buf.get(id);
+                graph.insert(bytesToUid(id, 0), buf.getInt(), buf.getInt(),
+                        buf.getInt(), buf.getLong());
+            }
+            return graph;
+        }
+    }
+
+    /** Returns the ids of the commits at positions START and later, reading
+     *  only that part of the commit-graph file. */
+    static List<String> idsFrom(int start) {
+        if (!Repository.COMMIT_GRAPH.exists()) {
+            load();
+        }
+        List<String> result = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(Repository.COMMIT_GRAPH, "r")) {
+            long from = HEADER_SIZE + (long) start * RECORD_SIZE;
+            if (from >= file.length()) {
+                return result;
+            }
+            byte[] records = new byte[(int) (file.length() - from)];
+            file.seek(from);
+            file.readFully(records);
+            for (int off = 0; off + RECORD_SIZE <= records.length; off += RECORD_SIZE) {
+                result.add(bytesToUid(records, off));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns the number of commits in the commit-graph file, without
+     *  reading it. */
+    static int count() {
+        if (!Repository.COMMIT_GRAPH.exists()) {
+            return load().size();
+        }
+        return (int) ((Repository.COMMIT_GRAPH.length() - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /** Builds a graph over every readable loose or packed commit,
+     *  ordered so that parents precede children. */
+    private static CommitGraph rebuild() {
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String id : Commit.allIds()) {
+            try {
+                commits.put(id, Commit.read(id));
+            } catch (IllegalArgumentException excp) {
+                /** not a commit (e.g. debris from an interrupted write) */
+                continue;
+            }
+        }
+        CommitGraph graph = new CommitGraph();
+        for (String start : commits.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (graph.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = commits.get(id);
+                String p1 = commits.containsKey(commit.getParent1()) ? commit.getParent1() : null;
+                String p2 = commits.containsKey(commit.getParent2()) ? commit.getParent2() : null;
+                if (p1 != null && !graph.contains(p1)) {
+                    stack.push(p1);
+                } else if (p2 != null && !graph.contains(p2)) {
+                    stack.push(p2);
+                } else {
+                    stack.pop();
+                    graph.append(id, p1, p2, commit.getTimeStamp().getTime());
+                }
+            }
+        }
+        return graph;
+    }
+
+    /** Records the commit ID with parents P1 and P2 (either may be null) made
+     *  at TIME, both in memory and at the end of the commit-graph file, and
+     *  returns true, or returns false if the graph has it already.  Both
+     *  parents must already be in the graph.  Other processes may have
+     *  added commits to the file since we read it, so we first read those
+     *  too, holding the file's lock until our record is written. */
+    boolean add(String id, String p1, String p2, long time) {
+        if (contains(id)) {
+            return false;
+        }
+        try (LockFile lock = LockFile.acquire(LOCK)) {
+            if (!Repository.COMMIT_GRAPH.exists()) {
+                append(id, p1, p2, time);
+                CommitIndex.added(id);
+                writeAll();
+                return true;
+            }
+            catchUp();
+            if (contains(id)) {
+                return false;
+            }
+            int pos = append(id, p1, p2, time);
+            CommitIndex.added(id);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_SIZE);
+            writeRecord(new DataOutputStream(record), pos);
+            try (FileOutputStream out = new FileOutputStream(Repository.COMMIT_GRAPH, true)) {
+                record.writeTo(out);
+            }
+            Stats.wrote(RECORD_SIZE);
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the records added to the commit-graph file since it was read
+     *  into this graph, or the whole file again if it was rewritten since
+     *  (see remove). */
+    private void catchUp() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(Repository.COMMIT_GRAPH, "r")) {
+            long end = HEADER_SIZE + (long) size() * RECORD_SIZE;
+            byte[] id = new byte[UID_LENGTH / 2];
+            if (size() > 0 && file.length() >= end) {
+                file.seek(end - RECORD_SIZE);
+                file.readFully(id);
+            }
+            if (file.length() < end
+                    || size() > 0 && !bytesToUid(id, 0).equals(ids.get(size() - 1))) {
+                ids.clear();
+                positions.clear();
+                end = HEADER_SIZE;
+            }
+            byte[] records = new byte[(int) (file.length() - end)];
+            file.seek(end);
+            file.readFully(records);
+            ByteBuffer buf = ByteBuffer.wrap(records);
+            while (buf.remaining() >= RECORD_SIZE) {
+                buf.get(id);
+                insert(bytesToUid(id, 0), buf.getInt(), buf.getInt(),
+                        buf.getInt(), buf.getLong());
+            }
+        }
+    }
+
+    /** Returns true iff the commit ID is in this graph. */
+    boolean contains(String id) {
+        return id != null && positions.containsKey(id);
+    }
+
+    /** Returns the number of commits in this graph. */
+    int size() {
+        return ids.size();
+    }
+
+    /** Returns, lazily, the ids of the commit ID and of its first parent,
+     *  that commit's first parent and so on, back to the initial commit. */
+    Iterable<String> firstParents(String id) {
+        int start = positions.get(id);
+        return () -> new Iterator<String>() {
+            private int pos = start;
+
+            @Override
+            public boolean hasNext() {
+                return pos != NONE;
+            }
+
+            @Override
+            public String next() {
+                if (pos == NONE) {
+                    throw new NoSuchElementException();
+                }
+                String result = ids.get(pos);
+                pos = parent1[pos];
+                return result;
+            }
+        };
+    }
+
+    /** Returns the ids of the parents of the commit ID, which is in this
+     *  graph. */
+    List<String> parents(String id) {
+        int pos = positions.get(id);
+        List<String> result = new ArrayList<>();
+        for (int p : new int[] {parent1[pos], parent2[pos]}) {
+            if (p != NONE) {
+                result.add(ids.get(p));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the time the commit ID, which is in this graph, was made, in
+     *  milliseconds since the epoch. */
+    long timestamp(String id) {
+        return timestamp[positions.get(id)];
+    }
+
+    /** Returns the ids of the commits ROOTS and of all their ancestors,
+     *  oldest first.  Roots that are not in this graph are skipped. */
+    List<String> reachable(Collection<String> roots) {
+        BitSet marked = new BitSet(size());
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (String root : roots) {
+            Integer pos = positions.get(root);
+            if (pos != null && !marked.get(pos)) {
+                marked.set(pos);
+                stack.push(pos);
+            }
+        }
+        while (!stack.isEmpty()) {
+            int v = stack.pop();
+            for (int p : new int[] {parent1[v], parent2[v]}) {
+                if (p != NONE && !marked.get(p)) {
+                    marked.set(p);
+                    stack.push(p);
+                }
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (int pos = marked.nextSetBit(0); pos >= 0; pos = marked.nextSetBit(pos + 1)) {
+            result.add(ids.get(pos));
+        }
+        return result;
+    }
+
+    /** Rewrites the commit-graph file without the commits REMOVED, none of
+     *  which may be an ancestor of a commit that stays. */
+    void remove(Set<String> removed) {
+        try (LockFile lock = LockFile.acquire(LOCK)) {
+            catchUp();
+            CommitGraph kept = new CommitGraph();
+            for (int pos = 0; pos < size(); pos += 1) {
+                if (!removed.contains(ids.get(pos))) {
+                    kept.append(ids.get(pos),
+                            parent1[pos] == NONE ? null : ids.get(parent1[pos]),
+                            parent2[pos] == NONE ? null : ids.get(parent2[pos]),
+                            timestamp[pos]);
+                }
+            }
+            kept.writeAll();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the id of the latest common ancestor of commits A and B (the
+     *  split point of a merge), or null if they share no history.  Walks both
+     *  histories at once in decreasing generation order, so the first commit
+     *  reached from both sides cannot be an ancestor of any other common
+     *  ancestor. */
+    String splitPoint(String a, String b) {
+        Integer ia = positions.get(a);
+        Integer ib = positions.get(b);
+        if (ia == null || ib == null) {
+            return null;
+        }
+        byte[] reachedFrom = new byte[size()];
+        PriorityQueue<Integer> fringe = new PriorityQueue<>((x, y) ->
+                generation[x] != generation[y]
+                        ? Integer.compare(generation[y], generation[x])
+                        : Long.compare(timestamp[y], timestamp[x]));
+        reachedFrom[ia] |= 1;
+        reachedFrom[ib] |= 2;
+        fringe.add(ia);
+        if (!ia.equals(ib)) {
+            fringe.add(ib);
+        }
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            if (reachedFrom[v] == 3) {
+                return ids.get(v);
+            }
+            for (int p : new int[] {parent1[v], parent2[v]}) {
+                if (p == NONE || (reachedFrom[p] | reachedFrom[v]) == reachedFrom[p]) {
+                    continue;
+                }
+                if (reachedFrom[p] == 0) {
+                    fringe.add(p);
+                }
+                reachedFrom[p] |= reachedFrom[v];
+            }
+        }
+        return null;
+    }
+
+    /** Adds the commit ID to this graph in memory and returns its position. */
+    private int append(String id, String p1, String p2, long time) {
+        int pos1 = p1 == null ? NONE : positions.get(p1);
+        int pos2 = p2 == null ? NONE : positions.get(p2);
+        int gen = 1;
+        if (pos1 != NONE) {
+            gen = Math.max(gen, generation[pos1] + 1);
+        }
+        if (pos2 != NONE) {
+            gen = Math.max(gen, generation[pos2] + 1);
+        }
+        return insert(id, pos1, pos2, gen, time);
+    }
+
+    /** Stores one record in memory and returns its position. */
+    private int insert(String id, int pos1, int pos2, int gen, long time) {
+        int pos = ids.size();
+        if (pos == parent1.length) {
+            parent1 = Arrays.copyOf(parent1, 2 * pos);
+            parent2 = Arrays.copyOf(parent2, 2 * pos);
+            generation = Arrays.copyOf(generation, 2 * pos);
+            timestamp = Arrays.copyOf(timestamp, 2 * pos);
+        }
+        ids.add(id);
+        positions.put(id, pos);
+        parent1[pos] = pos1;
+        parent2[pos] = pos2;
+        generation[pos] = gen;
+        timestamp[pos] = time;
+        return pos;
+    }
+
+    /** Writes the whole graph to the commit-graph file. */
+    private void writeAll() {
+        File tmp = join(Repository.GITLET_DIR, "commit-graph.tmp");
+        try (LockFile lock = LockFile.acquire(LOCK)) {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int pos = 0; pos < size(); pos += 1) {
+                    writeRecord(out, pos);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (!tmp.renameTo(Repository.COMMIT_GRAPH)) {
+                throw error("Could not write commit-graph file.");
+            }
+        }
+    }
+
+    /** Writes the record at position POS to OUT. */
+    private void writeRecord(DataOutputStream out, int pos) throws IOException {
+        out.write(uidToBytes(ids.get(pos)));
+        out.writeInt(parent1[pos]);
+        out.writeInt(parent2[pos]);
+        out.writeInt(generation[pos]);
+        out.writeLong(timestamp[pos]);
+    }
+}
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Looks up commits by full or abbreviated id without listing the Commits
+ *  directory.  The commit-index file is a memory-mapped IdIndex of the
+ *  sorted ids of the first COVERED commits of the CommitGraph; commits
+ *  made since then are read from the end of the commit-graph file and
+ *  searched directly.  Once there are more than TAIL_LIMIT of those, the
+ *  index is rewritten to cover them too.
+ *
+ *  @author Anthony Zhang
+ */
+class CommitIndex {
+
+    /** Starts a commit-index file ("GCIX"). */
+    private static final int MAGIC = 0x47434958;
+    /** Version of the file layout. */
+    private static final int VERSION = 1;
+    /** Size of the header: magic, version and COVERED. */
+    private static final int HEADER_SIZE = 12;
+    /** Most commits we search outside the index before rewriting it. */
+    private static final int TAIL_LIMIT = 64;
+
+    /** The sorted ids of the indexed commits, or null if not yet loaded. */
+    private static IdIndex index;
+    /** Ids of the commits made since the index was written. */
+    private static List<String> tail;
+
+    /** Returns true iff there is a commit whose full id is ID. */
+    static synchronized boolean contains(String id) {
+        load();
+        return index.find(id) >= 0 || tail.contains(id);
+    }
+
+    /** Returns up to LIMIT ids of commits that start with PREFIX. */
+    static synchronized List<String> resolve(String prefix, int limit) {
+        load();
+        List<String> result = index.findPrefix(prefix, limit);
+        for (String id : tail) {
+            if (result.size() < limit && id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Notes that the commit ID was just added to the commit graph. */
+    static synchronized void added(String id) {
+        if (tail != null) {
+            tail.add(id);
+        }
+    }
+
+    /** Forgets the loaded index, so that it is loaded again when next
+     *  needed; for when another process may have added commits. */
+    static synchronized void reset() {
+        index = null;
+        tail = null;
+    }
+
+    /** Maps the index into memory, first rewriting it if it is missing or
+     *  too far behind the commit graph. */
+    private static void load() {
+        if (index != null) {
+            return;
+        }
+        File file = Repository.COMMIT_INDEX;
+        if (file.exists()) {
+            ByteBuffer buf = IdIndex.map(file);
+            if (buf.getInt(0) == MAGIC && buf.getInt(4) == VERSION) {
+                List<String> newer = CommitGraph.idsFrom(buf.getInt(8));
+                if (newer.size() <= TAIL_LIMIT) {
+                    index = new IdIndex(buf, HEADER_SIZE);
+                    tail = newer;
+                    return;
+                }
+            }
+        }
+        List<String> ids = CommitGraph.idsFrom(0);
+        write(ids);
+        index = new IdIndex(IdIndex.map(file), HEADER_SIZE);
+        tail = new ArrayList<>();
+    }
+
+    /** Writes an index of the commits IDS, the whole commit graph. */
+    private static void write(List<String> ids) {
+        List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        /** a file of our own, since another process may be rebuilding the
+         * index at the same time */
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("commit-index", ".tmp", Repository.GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.size());
+                for (int n : IdIndex.fanout(sorted)) {
+                    out.writeInt(n);
+                }
+                for (String id : sorted) {
+                    out.write(uidToBytes(id));
+                }
+            }
+            Files.move(tmp.toPath(), Repository.COMMIT_INDEX.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** The commit journal: one record for every commit, appended in the order
+ *  the commits were made, holding everything global-log prints and find
+ *  searches.  A record is the raw commit id, the commit time in
+ *  milliseconds, the number of parents and their raw ids, and the length
+ *  and UTF-8 bytes of the message.  Whole-history queries map the file and
+ *  read it front to back instead of opening every commit.
+ *
+ *  Repositories older than the journal, or whose journal is missing
+ *  commits of the CommitGraph, catch up from the commits themselves the
+ *  first time the journal is loaded.
+ *
+ *  @author Anthony Zhang
+ */
+class CommitJournal {
+
+    /** Length of an id in bytes. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Size of a record without its parents and message. */
+    private static final int FIXED_SIZE = ID_BYTES + 8 + 1 + 4;
+    /** Name of the LockFile held while writing the journal. */
+    static final String LOCK = "commit-journal";
+
+    /** Appends the record of COMMIT, which was just made. */
+    static synchronized void added(Commit commit) {
+        append(List.of(commit));
+    }
+
+    /** Appends the records of COMMITS, which were just received, in order. */
+    static synchronized void added(List<Commit> commits) {
+        append(commits);
+    }
+
+    /** Returns the journal mapped into memory, first adding whatever commits
+     *  of the commit graph it is missing. */
+    static synchronized ByteBuffer load() {
+        ByteBuffer journal = map();
+        if (count(journal, 0) >= CommitGraph.count()) {
+            return journal;
+        }
+        /** another process may be catching up too, and must not add the
+         * same records */
+        try (LockFile lock = LockFile.acquire(LOCK)) {
+            journal = map();
+            Set<String> present = new HashSet<>();
+            for (int offset = 0; hasRecord(journal, offset); offset = next(journal, offset)) {
+                present.add(idAt(journal, offset));
+            }
+            List<Commit> missing = new ArrayList<>();
+            for (String id : CommitGraph.idsFrom(0)) {
+                if (!present.contains(id)) {
+                    missing.add(Commit.read(id));
+                }
+            }
+            append(missing);
+            journal = map();
+        }
+        return journal;
+    }
+
+    /** Rewrites the journal without the records of the commits REMOVED. */
+    static synchronized void remove(Set<String> removed) {
+        try (LockFile lock = LockFile.acquire(LOCK)) {
+            rewrite(removed);
+        }
+    }
+
+    /** Rewrites the journal without the records of the commits REMOVED,
+     *  with its lock held. */
+    private static void rewrite(Set<String> removed) {
+        ByteBuffer journal = map();
+        File tmp = join(Repository.GITLET_DIR, "commit-journal.tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int offset = 0; hasRecord(journal, offset); offset = next(journal, offset)) {
+                if (!removed.contains(idAt(journal, offset))) {
+                    out.write(journal.slice(offset, next(journal, offset) - offset));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), Repository.COMMIT_JOURNAL.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of records in JOURNAL from OFFSET on. */
+    static int count(ByteBuffer journal, int offset) {
+        int result = 0;
+        for (; hasRecord(journal, offset); offset = next(journal, offset)) {
+            result += 1;
+        }
+        return result;
+    }
+
+    /** Returns true iff a whole record starts at OFFSET in JOURNAL. */
+    static boolean hasRecord(ByteBuffer journal, int offset) {
+        if (offset + FIXED_SIZE > journal.limit()) {
+            return false;
+        }
+        return next(journal, offset) <= journal.limit();
+    }
+
+    /** Returns the offset of the record after the one at OFFSET. */
+    static int next(ByteBuffer journal, int offset) {
+        int start = messageStart(journal, offset);
+        return start + journal.getInt(start - 4);
+    }
+
+    /** Returns the commit id of the record at OFFSET. */
+    static String idAt(ByteBuffer journal, int offset) {
+        return rawId(journal, offset);
+    }
+
+    /** Returns the commit time of the record at OFFSET, in milliseconds. */
+    static long timeAt(ByteBuffer journal, int offset) {
+        return journal.getLong(offset + ID_BYTES);
+    }
+
+    /** Returns parent number WHICH (1 or 2) of the record at OFFSET, or
+     *  null if the commit has no such parent. */
+    static String parentAt(ByteBuffer journal, int offset, int which) {
+        if (journal.get(offset + ID_BYTES + 8) < which) {
+            return null;
+        }
+        return rawId(journal, offset + ID_BYTES + 8 + 1 + ID_BYTES * (which - 1));
+    }
+
+    /** Returns the message of the record at OFFSET. */
+    static String messageAt(ByteBuffer journal, int offset) {
+        int start = messageStart(journal, offset);
+        byte[] message = new byte[journal.getInt(start - 4)];
+        journal.get(start, message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /** Returns where the message of the record at OFFSET starts. */
+    private static int messageStart(ByteBuffer journal, int offset) {
+        return offset + FIXED_SIZE + ID_BYTES * journal.get(offset + ID_BYTES + 8);
+    }
+
+    /** Returns the id whose raw bytes start at OFFSET. */
+    private static String rawId(ByteBuffer journal, int offset) {
+        byte[] id = new byte[ID_BYTES];
+        journal.get(offset, id);
+        return bytesToUid(id, 0);
+    }
+
+    /** Appends the records of COMMITS, holding the journal's lock so that
+     *  records of other processes do not end up in between. */
+    private static void append(List<Commit> commits) {
+        try (LockFile lock = LockFile.acquire(LOCK);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Stats.counting(new FileOutputStream(Repository.COMMIT_JOURNAL, true))))) {
+            for (Commit commit : commits) {
+                byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+                out.write(uidToBytes(commit.getId()));
+                out.writeLong(commit.getTimeStamp().getTime());
+                out.writeByte(commit.getParent1() == null ? 0
+                        : commit.getParent2() == null ? 1 : 2);
+                if (commit.getParent1() != null) {
+                    out.write(uidToBytes(commit.getParent1()));
+                }
+                if (commit.getParent2() != null) {
+                    out.write(uidToBytes(commit.getParent2()));
+                }
+                out.writeInt(message.length);
+                out.write(message);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the journal mapped into memory, or nothing if there is no
+     *  journal yet. */
+    private static ByteBuffer map() {
+        if (!Repository.COMMIT_JOURNAL.exists()) {
+            return ByteBuffer.allocate(0);
+        }
+        return IdIndex.map(Repository.COMMIT_JOURNAL);
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The decoded commits of the repository.  Commits never change once they
+ *  are made, so every lookup of the same id within a process can share one
+ *  Commit object.  The most recently used commits are kept until their
+ *  total weight (see Commit.weight) passes MAX_WEIGHT; a commit's file map
+ *  is held only softly by the commit itself, since it can be built again
+ *  from its trees, and does not count.
+ *
+ *  Walks that know which commits they will visit next can prefetch them,
+ *  which reads the missing ones in parallel instead of one at a time.
+ *
+ *  @author Anthony Zhang
+ */
+class CommitStore {
+
+    /** Most weight the cached commits may have together. */
+    private static final long MAX_WEIGHT = 16L << 20;
+    /** Number of commits a walk prefetches at once. */
+    private static final int BATCH = 64;
+
+    /** The cached commits by id, least recently used first. */
+    private static final LinkedHashMap<String, Commit> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of the commits in CACHE. */
+    private static long weight;
+
+    /** Number of lookups answered from and not from CACHE. */
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /** Returns the commit with id ID. */
+    static Commit get(String id) {
+        synchronized (CACHE) {
+            Commit cached = CACHE.get(id);
+            if (cached != null) {
+                HITS.incrementAndGet();
+                return cached;
+            }
+        }
+        MISSES.incrementAndGet();
+        Commit commit = Commit.read(id);
+        put(commit);
+        return commit;
+    }
+
+    /** Adds COMMIT, which was just read or made, to the cache. */
+    static void put(Commit commit) {
+        synchronized (CACHE) {
+            Commit old = CACHE.put(commit.getId(), commit);
+            if (old != null) {
+                weight -= old.weight();
+            }
+            weight += commit.weight();
+            Iterator<Map.Entry<String, Commit>> eldest = CACHE.entrySet().iterator();
+            while (weight > MAX_WEIGHT && CACHE.size() > 1) {
+                weight -= eldest.next().getValue().weight();
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Reads whichever of the commits IDS are not cached, in parallel. */
+    static void prefetch(Collection<String> ids) {
+        List<String> missing = new ArrayList<>();
+        synchronized (CACHE) {
+            for (String id : ids) {
+                if (id != null && !CACHE.containsKey(id)) {
+                    missing.add(id);
+                }
+            }
+        }
+        missing.parallelStream().forEach(id -> put(Commit.read(id)));
+    }
+
+    /** Returns the commits IDS in order, prefetching each batch of them just
+     *  before it is reached.  IDS is consumed only a batch ahead, so a walk
+     *  that stops early reads little past where it stopped. */
+    static Iterable<Commit> walk(Iterator<String> ids) {
+        return () -> new Iterator<Commit>() {
+            private final ArrayDeque<String> batch = new ArrayDeque<>();
+
+            @Override
+            public boolean hasNext() {
+                return !batch.isEmpty() || ids.hasNext();
+            }
+
+            @Override
+            public Commit next() {
+                if (batch.isEmpty()) {
+                    while (batch.size() < BATCH && ids.hasNext()) {
+                        batch.add(ids.next());
+                    }
+                    prefetch(batch);
+                }
+                if (batch.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                return get(batch.poll());
+            }
+        };
+    }
+
+    /** Returns the number of lookups answered from memory. */
+    static long hits() {
+        return HITS.get();
+    }
+
+    /** Returns the number of lookups that had to read a commit. */
+    static long misses() {
+        return MISSES.get();
+    }
+}
@@ -0,0 +1,268 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet process that runs the commands of one repository
+ *  for clients connecting to a Unix-domain SOCKET in its .gitlet directory.
+ *  Everything the process has read stays in memory between commands: the
+ *  state files (see RepositorySession), decoded commits and trees, the
+ *  mapped pack index and the CommitIndex.
+ *
+ *  Commands that only read (READ_ONLY) run side by side; every other
+ *  command runs alone.  If another process changed the repository since
+ *  the daemon last did, the caches that cannot tell for themselves are
+ *  dropped before the next command.
+ *
+ *  A request is the number of arguments followed by each argument, as
+ *  written by DataOutputStream; the reply is what the command printed, up
+ *  to the end of the connection.  "gitlet daemon" starts a daemon in the
+ *  foreground, "gitlet daemon stop" stops it, and while one is running
+ *  every other command is sent to it.
+ *
+ *  @author Anthony Zhang
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+    /** The commands that never change the repository. */
+    private static final Set<String> READ_ONLY = Set.of("log", "global-log", "find", "status");
+
+    /** Lets reading commands share the repository and gives each other
+     *  command it alone. */
+    private static final ReentrantReadWriteLock LOCK = new ReentrantReadWriteLock(true);
+    /** Where the command running on each thread prints. */
+    private static final ThreadLocal<PrintStream> OUT = new ThreadLocal<>();
+    /** The stamps of the files this daemon last changed or read. */
+    private static volatile List<Object> stamps;
+
+    /** Runs the daemon command ARGS: "daemon" or "daemon stop". */
+    static void command(String[] args) {
+        if (args.length > 1 && args[1].equals("stop")) {
+            if (!forward(args)) {
+                System.out.println("No daemon is running.");
+            }
+        } else if (!Repository.GITLET_DIR.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            serve();
+        }
+    }
+
+    /** Sends the command ARGS to the running daemon and prints its reply,
+     *  returning false if there is no daemon to send it to. */
+    static boolean forward(String[] args) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            Channels.newInputStream(channel).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Returns a connection to the running daemon, or null if there is
+     *  none. */
+    private static SocketChannel connect() {
+        if (!SOCKET.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(address());
+        } catch (IOException excp) {
+            /** left behind by a daemon that did not stop cleanly */
+            SOCKET.delete();
+            return null;
+        }
+    }
+
+    /** Accepts and runs commands until stopped. */
+    private static void serve() {
+        SocketChannel running = connect();
+        if (running != null) {
+            try {
+                running.close();
+            } catch (IOException excp) {
+                /** it is only being closed */
+            }
+            System.out.println("A daemon is already running.");
+            return;
+        }
+        PrintStream console = System.out;
+        ExecutorService workers = Executors.newCachedThreadPool();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address());
+            stamps = stamps();
+            System.setOut(new PrintStream(new ThreadOutput(console), true, StandardCharsets.UTF_8));
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException excp) {
+                    break;
+                }
+                workers.execute(() -> handle(client, server));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            workers.shutdown();
+            System.setOut(console);
+            SOCKET.delete();
+        }
+    }
+
+    /** Runs the command sent on CLIENT, or stops SERVER if that was the
+     *  command, and replies with what it printed. */
+    private static void handle(SocketChannel client, ServerSocketChannel server) {
+        try (client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = in.readUTF();
+            }
+            PrintStream out = new PrintStream(new BufferedOutputStream(
+                    Channels.newOutputStream(client)), false, StandardCharsets.UTF_8);
+            OUT.set(out);
+            try {
+                run(args, server);
+            } catch (RuntimeException excp) {
+                out.println(excp.getMessage());
+            } finally {
+                OUT.remove();
+                out.flush();
+            }
+        } catch (IOException excp) {
+            /** the client went away; there is no one to tell */
+        }
+    }
+
+    /** Runs the command ARGS under the lock it needs. */
+    private static void run(String[] args, ServerSocketChannel server) throws IOException {
+        if (Main.command(args) == null) {
+            System.out.println("Please eneter a command");
+            return;
+        }
+        if (Main.command(args).equals("daemon")) {
+            LOCK.writeLock().lock();
+            try {
+                server.close();
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+            return;
+        }
+        dropStaleCaches();
+        boolean readOnly = READ_ONLY.contains(Main.command(args));
+        Lock lock = readOnly ? LOCK.readLock() : LOCK.writeLock();
+        lock.lock();
+        try {
+            Main.execute(args);
+        } finally {
+            if (!readOnly) {
+                stamps = stamps();
+            }
+            lock.unlock();
+        }
+    }
+
+    /** Drops the pack index and the CommitIndex if some other process has
+     *  changed the files they were read from. */
+    private static void dropStaleCaches() {
+        if (stamps().equals(stamps)) {
+            return;
+        }
+        LOCK.writeLock().lock();
+        try {
+            if (!stamps().equals(stamps)) {
+                Pack.reset();
+                CommitIndex.reset();
+                stamps = stamps();
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /** Returns the stamps of the commit graph and the pack index. */
+    private static List<Object> stamps() {
+        return Arrays.asList(RepositorySession.stamp(Repository.COMMIT_GRAPH),
+                RepositorySession.stamp(Pack.INDEX_FILE));
+    }
+
+    /** Returns the address of SOCKET.  The path is relative to the working
+     *  directory, because socket paths may only be about a hundred bytes. */
+    private static UnixDomainSocketAddress address() {
+        Path cwd = Repository.CWD.toPath().toAbsolutePath();
+        return UnixDomainSocketAddress.of(cwd.relativize(SOCKET.toPath().toAbsolutePath()));
+    }
+
+    /** The daemon's System.out, which sends what each thread prints to the
+     *  client of the command that thread is running. */
+    private static class ThreadOutput extends OutputStream {
+        /** Where threads that are not running a command print. */
+        private final OutputStream console;
+
+        ThreadOutput(OutputStream console) {
+            this.console = console;
+        }
+
+        /** Returns where the current thread prints. */
+        private OutputStream target() {
+            PrintStream out = OUT.get();
+            return out == null ? console : out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        /** Flushes the console only; what a command prints goes to its
+         *  client in one piece when it finishes. */
+        @Override
+        public void flush() throws IOException {
+            if (OUT.get() == null) {
+                console.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of a file.  A delta is a sequence of
+ *  instructions that rebuild a target from a base: "copy LEN bytes starting
+ *  at OFFSET of the base" and "insert these literal bytes".  Matches are
+ *  found by indexing the base in BLOCK-sized pieces and sliding a rolling
+ *  hash over the target.
+ *
+ *  @author Anthony Zhang
+ */
+class Delta {
+
+    /** Length of the pieces of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME ** (BLOCK - 1), to drop the oldest byte from the rolling hash. */
+    private static final int TOP_POWER;
+    /** Largest number of literal bytes in one insert instruction. */
+    private static final int MAX_INSERT = 0x7f;
+    /** Marks a copy instruction. */
+    private static final int COPY = 0x80;
+
+    static {
+        int p = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        TOP_POWER = p;
+    }
+
+    /** Returns a delta that rebuilds TARGET from BASE, or null if the delta
+     *  would not be less than half the size of TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        if (base.length < BLOCK || target.length < BLOCK) {
+            return null;
+        }
+        HashMap<Integer, Integer> index = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            index.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int literalStart = 0;
+        int i = 0;
+        int h = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            Integer match = index.get(h);
+            if (match != null
+                    && Arrays.equals(base, match, match + BLOCK, target, i, i + BLOCK)) {
+                int start = match;
+                int targetStart = i;
+                int len = BLOCK;
+                while (start + len < base.length && i + len < target.length
+                        && base[start + len] == target[i + len]) {
+                    len += 1;
+                }
+                while (targetStart > literalStart && start > 0
+                        && base[start - 1] == target[targetStart - 1]) {
+                    start -= 1;
+                    targetStart -= 1;
+                    len += 1;
+                }
+                writeInsert(out, target, literalStart, targetStart);
+                out.write(COPY);
+                writeVarint(out, start);
+                writeVarint(out, len);
+                i = targetStart + len;
+                literalStart = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                if (out.size() >= target.length / 2) {
+                    return null;
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - (target[i] & 0xff) * TOP_POWER) * PRIME + (target[i + BLOCK] & 0xff);
+            }
+            i += 1;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        if (out.size() >= target.length / 2) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        int targetLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[targetLength];
+        int r = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, r, len);
+                r += len;
+            } else {
+                System.arraycopy(delta, pos[0], result, r, op);
+                pos[0] += op;
+                r += op;
+            }
+        }
+        return result;
+    }
+
+    /** Writes the non-negative VALUE to OUT seven bits at a time, low bits
+     *  first, setting the top bit of every byte but the last. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a value written by writeVarint from IN. */
+    static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("truncated varint");
+            }
+            result |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+        }
+    }
+
+    /** Reads a value written by writeVarint from BYTES starting at POS[0],
+     *  advancing POS[0] past it. */
+    private static int readVarint(byte[] bytes, int[] pos) {
+        int result = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = bytes[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+        }
+    }
+
+    /** Writes insert instructions for TARGET[START .. END) to OUT. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target,
+                                    int start, int end) {
+        while (start < end) {
+            int len = Math.min(MAX_INSERT, end - start);
+            out.write(len);
+            out.write(target, start, len);
+            start += len;
+        }
+    }
+
+    /** Returns the rolling hash of BYTES[START .. START + BLOCK). */
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + (bytes[i] & 0xff);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Matches up the elements of two sequences of ints, usually line ids, so
+ *  that as many as possible are paired in order.  This is Myers' O(ND)
+ *  difference algorithm in its linear-space form: each step finds the
+ *  middle of an optimal edit path by searching from both ends at once and
+ *  then divides the problem there.
+ *
+ *  A region whose edit path grows longer than MAX_COST is instead split at
+ *  the elements that occur exactly once on each side ("patience" anchors),
+ *  which bounds the time spent on files that were largely rewritten; a
+ *  region with no such anchors is left unmatched.
+ *
+ *  @author Anthony Zhang
+ */
+class Diff {
+
+    /** Longest edit path searched for before falling back to anchors. */
+    private static final int MAX_COST = 1024;
+
+    /** The first sequence. */
+    private final int[] a;
+    /** The second sequence. */
+    private final int[] b;
+    /** For each element of a, the index of its match in b, or -1. */
+    private final int[] matches;
+
+    /** A comparison of A and B. */
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.matches = new int[a.length];
+        Arrays.fill(matches, -1);
+    }
+
+    /** Returns, for each element of A, the index of the element of B it is
+     *  matched with, or -1 if it has none.  Matched indices increase. */
+    static int[] match(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.matches;
+    }
+
+    /** Matches a[ALO..AHI) with b[BLO..BHI). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            matches[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] split = middle(aLo, aHi, bLo, bHi);
+        if (split == null) {
+            anchor(aLo, aHi, bLo, bHi);
+            return;
+        }
+        compare(aLo, split[0], bLo, split[1]);
+        compare(split[0], aHi, split[1], bHi);
+    }
+
+    /** Returns a point {x, y} on an optimal edit path from (ALO, BLO) to
+     *  (AHI, BHI), found where the forward and reverse searches meet, or null
+     *  if the path is longer than MAX_COST. */
+    private int[] middle(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] reverse = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(reverse, -1);
+        forward[offset + 1] = 0;
+        reverse[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int k1Start = 0;
+        int k1End = 0;
+        int k2Start = 0;
+        int k2End = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            if (d > MAX_COST) {
+                return null;
+            }
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (odd) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && reverse[k2Offset] != -1
+                            && x1 >= n - reverse[k2Offset]) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && reverse[k2Offset - 1] < reverse[k2Offset + 1])) {
+                    x2 = reverse[k2Offset + 1];
+                } else {
+                    x2 = reverse[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                reverse[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!odd) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        /** no common elements at all */
+        return new int[] {aHi, bLo};
+    }
+
+    /** Matches a[ALO..AHI) with b[BLO..BHI) by pairing up the elements that
+     *  occur exactly once in each, keeping the longest run of such pairs
+     *  that is in order on both sides, and comparing the gaps between them. */
+    private void anchor(int aLo, int aHi, int bLo, int bHi) {
+        Map<Integer, int[]> counts = new HashMap<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] c = counts.computeIfAbsent(a[i], k -> new int[] {0, 0, -1, -1});
+            c[0] += 1;
+            c[2] = i;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            int[] c = counts.get(b[j]);
+            if (c != null) {
+                c[1] += 1;
+                c[3] = j;
+            }
+        }
+        List<int[]> unique = new ArrayList<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] c = counts.get(a[i]);
+            if (c[0] == 1 && c[1] == 1) {
+                unique.add(new int[] {i, c[3]});
+            }
+        }
+        List<int[]> anchors = longestIncreasing(unique);
+        if (anchors.isEmpty()) {
+            return;
+        }
+        int i = aLo;
+        int j = bLo;
+        for (int[] pair : anchors) {
+            compare(i, pair[0], j, pair[1]);
+            matches[pair[0]] = pair[1];
+            i = pair[0] + 1;
+            j = pair[1] + 1;
+        }
+        compare(i, aHi, j, bHi);
+    }
+
+    /** Returns the longest subsequence of PAIRS, which are in increasing
+     *  order of their first elements, whose second elements also increase. */
+    private static List<int[]> longestIncreasing(List<int[]> pairs) {
+        int[] tails = new int[pairs.size()];
+        int[] previous = new int[pairs.size()];
+        int length = 0;
+        for (int p = 0; p < pairs.size(); p += 1) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[1] < pairs.get(p)[1]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[p] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            length = Math.max(length, lo + 1);
+        }
+        List<int[]> result = new ArrayList<>();
+        for (int p = length > 0 ? tails[length - 1] : -1; p >= 0; p = previous[p]) {
+            result.add(pairs.get(p));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+}
@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** Deletes the commits, trees and blobs nothing refers to any more.
+ *
+ *  An object is kept if it can be reached from a branch: the commits the
+ *  branches point to and their ancestors, which are marked in a bitset over
+ *  the CommitGraph, the trees of those commits and the blobs of their
+ *  files.  Blobs staged for addition are kept too.  So is everything younger
+ *  than the grace period, since another command may be about to refer to
+ *  it; a recent commit keeps its ancestors and files as well.  Packed
+ *  objects count as being as old as the pack.  The chunks of large blobs
+ *  are kept if a blob that is kept, however recent, lists them.
+ *
+ *  Loose objects are deleted; the pack is rewritten without the objects it
+ *  no longer needs, and the commit graph and commit journal without the
+ *  commits.  The CommitIndex and MessageIndex are rebuilt the next time
+ *  they are used, and the working-tree Index forgets deleted blobs.  Leftover
+ *  temporary files older than the grace period are deleted as well.
+ *
+ *  @author Anthony Zhang
+ */
+class GarbageCollector {
+
+    /** The grace period used unless another is given, in days. */
+    static final int DEFAULT_GRACE_DAYS = 14;
+
+    /** Objects are not deleted if they changed after this time, in
+     *  milliseconds. */
+    private final long cutoff;
+    /** True iff we only report what would be deleted. */
+    private final boolean dryRun;
+
+    /** Ids of the objects to keep. */
+    private final Set<String> commits = new HashSet<>();
+    private final Set<String> trees = new HashSet<>();
+    private final Set<String> blobs = new HashSet<>();
+    private final Set<String> chunks = new HashSet<>();
+    /** Ids of the objects to delete. */
+    private final Set<String> removed = new HashSet<>();
+    /** Ids of the commits among them. */
+    private final Set<String> removedCommits = new HashSet<>();
+    /** Number of loose and packed commits, trees and blobs deleted, and of
+     *  unreachable objects kept for being recent. */
+    private int removedTrees;
+    private int removedBlobs;
+    private int removedChunks;
+    private int recent;
+    /** True iff the pack holds any of the objects to delete. */
+    private boolean packChanged;
+
+    /** A collector that spares objects younger than GRACEDAYS days and, iff
+     *  DRYRUN, deletes nothing. */
+    private GarbageCollector(int graceDays, boolean dryRun) {
+        this.cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(graceDays);
+        this.dryRun = dryRun;
+    }
+
+    /** Deletes the unreachable objects older than GRACEDAYS days, or only
+     *  reports them iff DRYRUN. */
+    static void run(int graceDays, boolean dryRun) {
+        GarbageCollector gc = new GarbageCollector(graceDays, dryRun);
+        gc.mark();
+        gc.sweep();
+        System.out.printf("%s %d commits, %d trees and %d blobs.%n",
+                dryRun ? "Would remove" : "Removed",
+                gc.removedCommits.size(), gc.removedTrees, gc.removedBlobs);
+        if (gc.removedChunks > 0) {
+            System.out.printf("%s %d chunks of large blobs.%n",
+                    dryRun ? "Would remove" : "Removed", gc.removedChunks);
+        }
+        if (gc.recent > 0) {
+            System.out.printf("Kept %d unreachable objects younger than %d days.%n",
+                    gc.recent, graceDays);
+        }
+    }
+
+    /** Marks every object to keep. */
+    private void mark() {
+        RepositorySession session = RepositorySession.get();
+        List<String> roots = new ArrayList<>(session.branches().values());
+        boolean packIsRecent = Pack.PACK_FILE.lastModified() > cutoff;
+        for (String id : Commit.allIds()) {
+            File loose = join(Repository.COMMITS, id);
+            if (loose.exists() ? loose.lastModified() > cutoff : packIsRecent) {
+                roots.add(id);
+            }
+        }
+        for (String id : CommitGraph.load().reachable(roots)) {
+            commits.add(id);
+            Commit commit = Commit.read(id);
+            if (commit.storedTreeId() != null) {
+                Tree.mark(commit.storedTreeId(), trees, blobs);
+            } else {
+                blobs.addAll(commit.getAllfiles().values());
+            }
+        }
+        blobs.addAll(session.stagedForAddition().values());
+        List<String> loose = plainFilenamesIn(Repository.BLOBS);
+        for (String id : loose == null ? new ArrayList<String>() : loose) {
+            if (blobs.contains(id) || join(Repository.BLOBS, id).lastModified() > cutoff) {
+                chunks.addAll(BlobStore.chunks(id));
+            }
+        }
+    }
+
+    /** Deletes, or counts, every object that was not marked. */
+    private void sweep() {
+        for (String id : Commit.allIds()) {
+            if (!commits.contains(id)) {
+                removedCommits.add(id);
+                sweepLoose(join(Repository.COMMITS, id));
+            }
+        }
+        removedTrees += sweepLoose(Repository.TREES, trees);
+        removedBlobs += sweepLoose(Repository.BLOBS, blobs);
+        /** not through sweepLoose(DIR, KEEP): a chunk can have the id of a
+         * small blob, which must not be removed from the pack */
+        List<String> chunkNames = plainFilenamesIn(Repository.CHUNKS);
+        for (String id : chunkNames == null ? new ArrayList<String>() : chunkNames) {
+            if (id.length() == UID_LENGTH && !chunks.contains(id)
+                    && sweepLoose(join(Repository.CHUNKS, id))) {
+                removedChunks += 1;
+            }
+        }
+        boolean packIsRecent = Pack.PACK_FILE.lastModified() > cutoff;
+        for (String id : Pack.ids(Pack.COMMIT)) {
+            packChanged |= removedCommits.contains(id);
+        }
+        for (String id : Pack.ids(Pack.TREE)) {
+            if (!trees.contains(id) && !packIsRecent) {
+                removed.add(id);
+                removedTrees += 1;
+                packChanged = true;
+            } else if (!trees.contains(id)) {
+                recent += 1;
+            }
+        }
+        for (String id : Pack.ids(Pack.BLOB)) {
+            if (!blobs.contains(id) && !packIsRecent) {
+                removed.add(id);
+                removedBlobs += 1;
+                packChanged = true;
+            } else if (!blobs.contains(id)) {
+                recent += 1;
+            }
+        }
+        removed.addAll(removedCommits);
+        sweepTemporaryFiles();
+        if (dryRun) {
+            return;
+        }
+        if (packChanged) {
+            Pack.rewrite(removed);
+        }
+        if (!removedCommits.isEmpty()) {
+            CommitGraph.load().remove(removedCommits);
+            CommitJournal.remove(removedCommits);
+            Repository.COMMIT_INDEX.delete();
+            Repository.MESSAGE_INDEX.delete();
+            CommitIndex.reset();
+        }
+        RepositorySession.get().index().forgetBlobs(removed);
+    }
+
+    /** Deletes the files in DIR named by uids that are not in KEEP, unless
+     *  they are recent, and returns how many were (or would be) deleted. */
+    private int sweepLoose(File dir, Set<String> keep) {
+        List<String> names = plainFilenamesIn(dir);
+        int count = 0;
+        for (String name : names == null ? new ArrayList<String>() : names) {
+            if (name.length() == UID_LENGTH && !keep.contains(name)
+                    && sweepLoose(join(dir, name))) {
+                removed.add(name);
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Deletes the loose object FILE, if it exists and is not recent, and
+     *  returns true iff it was (or would be) deleted. */
+    private boolean sweepLoose(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        if (file.lastModified() > cutoff) {
+            recent += 1;
+            return false;
+        }
+        if (!dryRun) {
+            file.delete();
+        }
+        return true;
+    }
+
+    /** Deletes the temporary files left behind by commands that did not
+     *  finish, if they are older than the grace period. */
+    private void sweepTemporaryFiles() {
+        for (File dir : new File[] {Repository.GITLET_DIR, Repository.COMMITS,
+                                    Repository.BLOBS, Repository.CHUNKS, Repository.TREES,
+                                    Repository.PACKS}) {
+            List<String> names = plainFilenamesIn(dir);
+            for (String name : names == null ? new ArrayList<String>() : names) {
+                File file = join(dir, name);
+                if (name.endsWith(".tmp") && file.lastModified() <= cutoff && !dryRun) {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
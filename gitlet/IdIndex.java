@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A read-only view of a sorted table of object ids inside a memory-mapped
+ *  index file.  The table is preceded by a 256-entry fanout table whose
+ *  entry i is the number of ids whose first byte is at most i, so both
+ *  exact lookups and abbreviated-id lookups are a binary search over one
+ *  small range of the file, and only the pages touched are read.
+ *
+ *  @author Anthony Zhang
+ */
+class IdIndex {
+
+    /** Length of an id in bytes. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Size of the fanout table in bytes. */
+    static final int FANOUT_SIZE = 256 * 4;
+
+    /** The mapped index file. */
+    private final ByteBuffer buf;
+    /** Where the fanout table starts in buf. */
+    private final int fanoutStart;
+    /** Where the sorted ids start in buf. */
+    private final int idsStart;
+    /** Number of ids. */
+    private final int count;
+
+    /** An index over BUF whose fanout table starts at FANOUTSTART and is
+     *  immediately followed by the sorted ids. */
+    IdIndex(ByteBuffer buf, int fanoutStart) {
+        this.buf = buf;
+        this.fanoutStart = fanoutStart;
+        this.idsStart = fanoutStart + FANOUT_SIZE;
+        this.count = buf.getInt(fanoutStart + 4 * 255);
+    }
+
+    /** Returns the contents of FILE mapped read-only into memory. */
+    static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the fanout table for the sorted ids in IDS. */
+    static int[] fanout(List<String> ids) {
+        int[] result = new int[256];
+        for (String id : ids) {
+            result[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int i = 1; i < 256; i += 1) {
+            result[i] += result[i - 1];
+        }
+        return result;
+    }
+
+    /** Returns the number of ids. */
+    int count() {
+        return count;
+    }
+
+    /** Returns where the sorted ids end in the file, which is where any
+     *  per-id tables that follow them start. */
+    int idsEnd() {
+        return idsStart + count * ID_BYTES;
+    }
+
+    /** Returns the id at position POS. */
+    String idAt(int pos) {
+        byte[] id = new byte[ID_BYTES];
+        buf.get(idsStart + pos * ID_BYTES, id);
+        return bytesToUid(id, 0);
+    }
+
+    /** Returns the position of the full id ID, or -1 if it is absent. */
+    int find(String id) {
+        if (id == null || id.length() != UID_LENGTH || !isHex(id)) {
+            return -1;
+        }
+        byte[] key = uidToBytes(id);
+        int pos = lowerBound(key);
+        if (pos < count && compareAt(pos, key) == 0) {
+            return pos;
+        }
+        return -1;
+    }
+
+    /** Returns up to LIMIT ids that start with the hexadecimal PREFIX, in
+     *  sorted order. */
+    List<String> findPrefix(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !isHex(prefix)) {
+            return result;
+        }
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < UID_LENGTH) {
+            padded.append('0');
+        }
+        for (int pos = lowerBound(uidToBytes(padded.toString()));
+             pos < count && result.size() < limit; pos += 1) {
+            String id = idAt(pos);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Returns the position of the first id that is not less than KEY. */
+    private int lowerBound(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : buf.getInt(fanoutStart + 4 * (first - 1));
+        int hi = buf.getInt(fanoutStart + 4 * first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the id at position POS with KEY as unsigned bytes. */
+    private int compareAt(int pos, byte[] key) {
+        int off = idsStart + pos * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(buf.get(off + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns true iff S consists of lower-case hexadecimal digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
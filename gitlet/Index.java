@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** The working-tree index: for each file in the working directory that we
+ *  have hashed, its size, modification time and inode as they were at the
+ *  time, and the id of the blob with its contents.  As long as a file's
+ *  stat data still matches its entry, the recorded blob id is trusted and
+ *  the file is not read again.
+ *
+ *  An entry whose modification time is not older than the index file
+ *  itself may have been changed again within the same clock tick after it
+ *  was recorded, so such "racily clean" entries are always rehashed.
+ *
+ *  Commands running side by side each load the index and save what they
+ *  changed on top of what is on disk by then, so neither loses the
+ *  other's entries.
+ *
+ *  @author Anthony Zhang
+ */
+class Index {
+
+    /** Starts a working-tree index file ("GWTI"). */
+    private static final int MAGIC = 0x47575449;
+    /** Version of the file layout. */
+    private static final int VERSION = 1;
+
+    /** Stat data and blob id of each indexed file, by file name. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** Modification time of the index file when it was loaded, in
+     *  nanoseconds; entries modified at or after it are not trusted. */
+    private long racyTime = Long.MIN_VALUE;
+    /** True iff entries changed since the index was loaded. */
+    private boolean dirty;
+    /** The entries recorded since the index was loaded, by file name, with
+     *  null for those dropped. */
+    private final TreeMap<String, Entry> changes = new TreeMap<>();
+    /** Blobs whose entries were dropped since the index was loaded. */
+    private final Set<String> forgottenBlobs = new HashSet<>();
+
+    /** Returns the index of the current repository, empty if there is none. */
+    static Index load() {
+        Index index = new Index();
+        File file = Repository.INDEX;
+        if (!file.exists()) {
+            return index;
+        }
+        index.racyTime = lastModified(file);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Stats.counting(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                /** unknown layout: start over, it is only a cache */
+                index.dirty = true;
+                return index;
+            }
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong(), null);
+                in.readFully(id);
+                entry.blobId = bytesToUid(id, 0);
+                index.entries.put(name, entry);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Returns the id of the blob holding the current contents of the working
+     *  file NAME, hashing it only if its stat data changed since it was
+     *  indexed.  Returns null if there is no such file. */
+    String blobIdOf(String name) {
+        String id = cachedBlobIdOf(name);
+        if (id != null) {
+            return id;
+        }
+        File file = join(Repository.CWD, name);
+        Entry stat = stat(file);
+        if (stat == null) {
+            return null;
+        }
+        stat.blobId = BlobStore.hash(file);
+        entries.put(name, stat);
+        changes.put(name, stat);
+        dirty = true;
+        return stat.blobId;
+    }
+
+    /** Returns the blob id recorded for the working file NAME if its stat
+     *  data still matches, and null otherwise. */
+    String cachedBlobIdOf(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null || entry.mtime >= racyTime) {
+            return null;
+        }
+        Entry stat = stat(join(Repository.CWD, name));
+        if (stat == null || !stat.sameStat(entry)) {
+            return null;
+        }
+        return entry.blobId;
+    }
+
+    /** Records that the working file NAME, as it is now, holds the contents of
+     *  the blob BLOBID. */
+    void record(String name, String blobId) {
+        record(name, blobId, statOf(name));
+    }
+
+    /** Records that the working file NAME held the contents of the blob
+     *  BLOBID when its stat data was STAT, from statOf.  A file hashed
+     *  after it was statted is recorded with the stat data from before, so
+     *  that if it was changed meanwhile, the entry no longer matches it and
+     *  it is hashed again. */
+    void record(String name, String blobId, Entry stat) {
+        if (stat == null) {
+            forget(name);
+            return;
+        }
+        stat.blobId = blobId;
+        entries.put(name, stat);
+        changes.put(name, stat);
+        dirty = true;
+    }
+
+    /** Drops the entry for NAME, if any. */
+    void forget(String name) {
+        if (entries.remove(name) != null) {
+            changes.put(name, null);
+            dirty = true;
+        }
+    }
+
+    /** Drops the entries whose blobs are among BLOBIDS, which no longer
+     *  exist. */
+    void forgetBlobs(Set<String> blobIds) {
+        if (blobIds.isEmpty()) {
+            return;
+        }
+        entries.values().removeIf(entry -> blobIds.contains(entry.blobId));
+        forgottenBlobs.addAll(blobIds);
+        dirty = true;
+    }
+
+    /** Writes our changes back if there are any, on top of the index as
+     *  it is on disk now.  Commands running side by side, in one process
+     *  (see Daemon) or several, save one at a time. */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        try (LockFile lock = LockFile.acquire("index")) {
+            Index current = load();
+            /** entries that are racily clean now would be trusted once the
+             * file is newer than they are */
+            current.entries.values().removeIf(entry -> entry.mtime >= current.racyTime
+                    || forgottenBlobs.contains(entry.blobId));
+            for (Map.Entry<String, Entry> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    current.entries.remove(change.getKey());
+                } else {
+                    current.entries.put(change.getKey(), change.getValue());
+                }
+            }
+            current.write();
+        }
+        changes.clear();
+        forgottenBlobs.clear();
+        dirty = false;
+    }
+
+    /** Writes the entries to the INDEX file. */
+    private void write() {
+        File tmp = join(Repository.GITLET_DIR, "index.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Stats.counting(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(uidToBytes(entry.blobId));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), Repository.INDEX.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the current stat data of the working file NAME, or null if
+     *  it is not a plain file.  Reads no state, so any thread may call it. */
+    static Entry statOf(String name) {
+        return stat(join(Repository.CWD, name));
+    }
+
+    /** Returns the current stat data of FILE, or null if it is not a plain
+     *  file. */
+    private static Entry stat(File file) {
+        Stats.statted();
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            return new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    inode(attrs), null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns a number identifying the file described by ATTRS (derived from
+     *  its device and inode on Unix), or 0 where the platform has none. */
+    private static long inode(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? 0 : key.hashCode();
+    }
+
+    /** Returns the modification time of FILE in nanoseconds. */
+    private static long lastModified(File file) {
+        try {
+            return Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /** The stat data and blob id of one working file. */
+    static class Entry {
+        /** Size in bytes. */
+        private final long size;
+        /** Modification time in nanoseconds. */
+        private final long mtime;
+        /** Identity of the file, from its device and inode numbers. */
+        private final long inode;
+        /** Id of the blob with the file's contents. */
+        private String blobId;
+
+        Entry(long size, long mtime, long inode, String blobId) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.blobId = blobId;
+        }
+
+        /** Returns true iff this and OTHER have the same stat data. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Merges two versions of a file line by line against their common
+ *  ancestor (diff3).  Each side is matched with the ancestor by Diff; the
+ *  lines all three agree on split the files into chunks, and a chunk that
+ *  only one side changed takes that side's lines, so only chunks both
+ *  sides changed differently become conflicts:
+ *
+ *      <<<<<<< HEAD
+ *      (current lines)
+ *      =======
+ *      (given lines)
+ *      >>>>>>>
+ *
+ *  Lines are compared by small integer ids and written straight from the
+ *  blobs they came from, so no line is ever turned into a String.  Files
+ *  that look binary are not merged line by line; if both sides changed
+ *  them, the whole of each version goes between the markers.
+ *
+ *  @author Anthony Zhang
+ */
+class LineMerge {
+
+    /** How far into a file we look for a NUL byte to decide it is binary. */
+    private static final int BINARY_PROBE = 8000;
+    /** The conflict markers. */
+    private static final byte[] START = bytes("<<<<<<< HEAD\n");
+    private static final byte[] MIDDLE = bytes("=======\n");
+    private static final byte[] END = bytes(">>>>>>>\n");
+    private static final byte[] NEWLINE = bytes("\n");
+
+    /** Writes to FILE the merge of the blobs CURRENT and OTHER with their
+     *  common ancestor BASE; any of them may be null for a missing file.
+     *  Returns true iff the result has conflicts. */
+    static boolean merge(String base, String current, String other, File file) {
+        Lines o = new Lines(read(base));
+        Lines a = new Lines(read(current));
+        Lines b = new Lines(read(other));
+        WorkingTree.prepare(file);
+        try (OutputStream out = new BufferedOutputStream(Stats.counting(new FileOutputStream(file)))) {
+            if (o.binary() || a.binary() || b.binary()) {
+                writeConflict(out, a, 0, a.count(), b, 0, b.count());
+                return true;
+            }
+            return merge(o, a, b, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the merge of A and B with their ancestor O to OUT, returning
+     *  true iff there are conflicts. */
+    private static boolean merge(Lines o, Lines a, Lines b, OutputStream out)
+            throws IOException {
+        Map<Line, Integer> ids = new HashMap<>();
+        int[] oIds = o.ids(ids);
+        int[] toA = Diff.match(oIds, a.ids(ids));
+        int[] toB = Diff.match(oIds, b.ids(ids));
+        boolean conflict = false;
+        int io = 0;
+        int ia = 0;
+        int ib = 0;
+        while (io < o.count() || ia < a.count() || ib < b.count()) {
+            /** lines all three agree on are copied through */
+            while (io < o.count() && toA[io] == ia && toB[io] == ib) {
+                o.write(out, io, io + 1);
+                io += 1;
+                ia += 1;
+                ib += 1;
+            }
+            /** the next such line ends the chunk that follows */
+            int so = io;
+            while (so < o.count() && (toA[so] < 0 || toB[so] < 0)) {
+                so += 1;
+            }
+            int sa = so < o.count() ? toA[so] : a.count();
+            int sb = so < o.count() ? toB[so] : b.count();
+            if (so == io && sa == ia && sb == ib) {
+                break;
+            }
+            boolean aChanged = !Lines.same(o, io, so, a, ia, sa);
+            boolean bChanged = !Lines.same(o, io, so, b, ib, sb);
+            if (!aChanged) {
+                b.write(out, ib, sb);
+            } else if (!bChanged || Lines.same(a, ia, sa, b, ib, sb)) {
+                a.write(out, ia, sa);
+            } else {
+                writeConflict(out, a, ia, sa, b, ib, sb);
+                conflict = true;
+            }
+            io = so;
+            ia = sa;
+            ib = sb;
+        }
+        return conflict;
+    }
+
+    /** Writes lines [ALO, AHI) of A and [BLO, BHI) of B to OUT between
+     *  conflict markers. */
+    private static void writeConflict(OutputStream out, Lines a, int aLo, int aHi,
+                                      Lines b, int bLo, int bHi) throws IOException {
+        out.write(START);
+        a.write(out, aLo, aHi);
+        if (aHi > aLo && !a.endsLine(aHi)) {
+            out.write(NEWLINE);
+        }
+        out.write(MIDDLE);
+        b.write(out, bLo, bHi);
+        if (bHi > bLo && !b.endsLine(bHi)) {
+            out.write(NEWLINE);
+        }
+        out.write(END);
+    }
+
+    /** Returns the contents of the blob ID, or nothing if ID is null. */
+    private static byte[] read(String id) {
+        if (id == null) {
+            return new byte[0];
+        }
+        try (InputStream in = BlobStore.open(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns S in UTF-8. */
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The lines of one version of a file, as offsets into its contents.
+     *  Each line includes its "\n", except perhaps the last. */
+    private static class Lines {
+        /** The contents. */
+        private final byte[] data;
+        /** Where each line starts, followed by the length of data. */
+        private final int[] starts;
+
+        Lines(byte[] data) {
+            this.data = data;
+            int count = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    count += 1;
+                }
+            }
+            starts = new int[count + 1];
+            for (int i = 0, n = 1; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    starts[n] = i + 1;
+                    n += 1;
+                }
+            }
+        }
+
+        /** Returns the number of lines. */
+        int count() {
+            return starts.length - 1;
+        }
+
+        /** Returns true iff the contents contain a NUL byte near the start. */
+        boolean binary() {
+            for (int i = 0; i < Math.min(data.length, BINARY_PROBE); i += 1) {
+                if (data[i] == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Returns true iff the line before line END ends with a newline. */
+        boolean endsLine(int end) {
+            return data[starts[end] - 1] == '\n';
+        }
+
+        /** Returns the id of each line, assigning new ids from IDS to lines
+         *  not seen before. */
+        int[] ids(Map<Line, Integer> ids) {
+            int[] result = new int[count()];
+            for (int i = 0; i < result.length; i += 1) {
+                Line line = new Line(data, starts[i], starts[i + 1]);
+                Integer id = ids.putIfAbsent(line, ids.size());
+                result[i] = id == null ? ids.size() - 1 : id;
+            }
+            return result;
+        }
+
+        /** Writes lines [LO, HI) to OUT. */
+        void write(OutputStream out, int lo, int hi) throws IOException {
+            out.write(data, starts[lo], starts[hi] - starts[lo]);
+        }
+
+        /** Returns true iff lines [XLO, XHI) of X are the same bytes as lines
+         *  [YLO, YHI) of Y. */
+        static boolean same(Lines x, int xLo, int xHi, Lines y, int yLo, int yHi) {
+            return Arrays.equals(x.data, x.starts[xLo], x.starts[xHi],
+                    y.data, y.starts[yLo], y.starts[yHi]);
+        }
+    }
+
+    /** One line, compared by its bytes. */
+    private static class Line {
+        /** The contents the line is in. */
+        private final byte[] data;
+        /** Where it starts and ends in data. */
+        private final int start;
+        private final int end;
+        /** Hash of its bytes. */
+        private final int hash;
+
+        Line(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + data[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Line)) {
+                return false;
+            }
+            Line line = (Line) other;
+            return hash == line.hash
+                    && Arrays.equals(data, start, end, line.data, line.start, line.end);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
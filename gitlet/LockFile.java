@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static gitlet.Utils.*;
+
+/** An exclusive lock on one part of the repository, such as a branch or the
+ *  staging area, held against the other threads of this process and against
+ *  other processes using the same repository.  Each part has a file of its
+ *  own in the LOCKS directory, which is locked with the operating system's
+ *  file locks, so a lock goes away with the process that held it and a
+ *  command that crashed never leaves the repository locked.  The files are
+ *  empty and are kept for the next time.
+ *
+ *  Locks are only held for as long as it takes to write what they guard,
+ *  except that a command changing the working tree holds the locks of the
+ *  head branch and the state from before it does until it has flushed
+ *  (see RepositorySession.lockHead).  Whoever takes several branch and
+ *  state locks takes them in the order of their names, and the other locks
+ *  are never held while waiting for one of those, so no two commands can
+ *  each be waiting for a lock the other holds.
+ *
+ *  @author Anthony Zhang
+ */
+class LockFile implements AutoCloseable {
+
+    /** Lock guarding the head branch, the staging area and the remotes. */
+    static final String STATE = "state";
+
+    /** The lock on each part within this process.  The operating system's
+     *  locks belong to the process, so threads take this one first. */
+    private static final Map<String, ReentrantLock> LOCAL = new ConcurrentHashMap<>();
+
+    /** This process's lock on the part. */
+    private final ReentrantLock local;
+    /** The open lock file, and the lock on it, or null if this thread
+     *  already held the lock. */
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private LockFile(ReentrantLock local, FileChannel channel, FileLock lock) {
+        this.local = local;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /** Waits for and takes the lock called NAME. */
+    static LockFile acquire(String name) {
+        ReentrantLock local = LOCAL.computeIfAbsent(name, k -> new ReentrantLock());
+        local.lock();
+        if (local.getHoldCount() > 1) {
+            return new LockFile(local, null, null);
+        }
+        FileChannel channel = null;
+        try {
+            Repository.LOCKS.mkdir();
+            channel = FileChannel.open(join(Repository.LOCKS, name).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new LockFile(local, channel, channel.lock());
+        } catch (IOException excp) {
+            closeQuietly(channel);
+            local.unlock();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the name of the lock on the branch NAME. */
+    static String branch(String name) {
+        return "branch-" + RepositorySession.refName(name);
+    }
+
+    /** Gives up the lock. */
+    @Override
+    public void close() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            closeQuietly(channel);
+            local.unlock();
+        }
+    }
+
+    /** Closes CHANNEL, if there is one, ignoring errors. */
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            /** closing releases the lock, which is all we need */
+        }
+    }
+}
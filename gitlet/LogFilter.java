@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.ToLongFunction;
+import java.util.stream.StreamSupport;
+
+/** Which commits log and global-log print, from the options
+ *
+ *      -n COUNT        at most COUNT commits
+ *      --since DATE    commits made at or after DATE
+ *      --until DATE    commits made at or before DATE
+ *
+ *  where DATE is yyyy-MM-dd (the start of that day) or yyyy-MM-ddTHH:mm:ss,
+ *  in local time.  Commits are chosen by the times in the CommitGraph or
+ *  the CommitJournal, so the ones left out are never read.
+ *
+ *  @author Anthony Zhang
+ */
+class LogFilter {
+
+    /** Most commits to print. */
+    private long limit = Long.MAX_VALUE;
+    /** Earliest and latest commit time to print, in milliseconds. */
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+
+    /** Returns the filter given by the options ARGS[START..], or null if
+     *  they are not valid. */
+    static LogFilter parse(String[] args, int start) {
+        LogFilter filter = new LogFilter();
+        try {
+            for (int i = start; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    return null;
+                }
+                switch (args[i]) {
+                    case "-n":
+                        filter.limit = Long.parseLong(args[i + 1]);
+                        if (filter.limit < 0) {
+                            return null;
+                        }
+                        break;
+                    case "--since":
+                        filter.since = time(args[i + 1]);
+                        break;
+                    case "--until":
+                        filter.until = time(args[i + 1]);
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException excp) {
+            return null;
+        }
+        return filter;
+    }
+
+    /** Returns, lazily, the first LIMIT of ITEMS whose TIME is between
+     *  SINCE and UNTIL. */
+    <T> Iterator<T> select(Iterator<T> items, ToLongFunction<T> time) {
+        Spliterator<T> all = Spliterators.spliteratorUnknownSize(items, 0);
+        return StreamSupport.stream(all, false)
+                .filter(item -> since <= time.applyAsLong(item)
+                        && time.applyAsLong(item) <= until)
+                .limit(limit)
+                .iterator();
+    }
+
+    /** Returns the time DATE stands for, in milliseconds. */
+    private static long time(String date) {
+        LocalDateTime local = date.contains("T") ? LocalDateTime.parse(date)
+                : LocalDate.parse(date).atStartOfDay();
+        return local.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -1,25 +1,81 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author Anthony Zhang
  */
 public class Main {
 
+    /** The option that prints what a command did once it finishes. */
+    static final String STATS = "--stats";
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
-        if (args.length == 0) {
+        if (args.length == 0 || command(args) == null) {
             System.out.println("Please eneter a command");
             return;
         }
+        if (command(args).equals("daemon")) {
+            Daemon.command(args);
+            return;
+        }
+        if (command(args).equals("upload-pack") || command(args).equals("receive-pack")) {
+            /** the other side of a fetch or push talks to us, not to a daemon */
+            execute(args);
+            return;
+        }
+        if (Daemon.forward(args)) {
+            return;
+        }
+        execute(args);
+    }
+
+    /** Runs the command ARGS in a session of its own. */
+    static void execute(String[] args) {
+        boolean printStats = args[0].equals(STATS);
+        if (printStats) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        Stats stats = Stats.begin(args[0]);
+        try {
+            /** the repository state is read as needed and written back once,
+             * only if the command finishes */
+            RepositorySession session = RepositorySession.begin();
+            boolean finished = false;
+            try {
+                run(args);
+                finished = true;
+            } finally {
+                session.end(finished);
+            }
+        } catch (GitletException excp) {
+            /** another command got there first; nothing of ours was kept */
+            System.out.println(excp.getMessage());
+        } finally {
+            stats.end(printStats);
+        }
+    }
+
+    /** Returns the name of the command ARGS runs, after any --stats, or null
+     *  if there is none. */
+    static String command(String[] args) {
+        int i = args.length > 0 && args[0].equals(STATS) ? 1 : 0;
+        return i < args.length ? args[i] : null;
+    }
+
+    /** Runs the command ARGS in the current session. */
+    private static void run(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
                 Repository.initialCommit();
                 break;
             case "add":
-                Repository.addThisToStagingArea(args[1]);
+                Repository.addThisToStagingArea(
+                        Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 if (args.length == 1 || args[1].equals("")) {
@@ -32,13 +88,22 @@ public class Main {
                 Repository.addToRemovalArea(args[1]);
                 break;
             case "log":
-                Repository.getLog();
-                break;
             case "global-log":
-                Repository.getGlobalLog();
+                LogFilter filter = LogFilter.parse(args, 1);
+                if (filter == null) {
+                    System.out.println("Incorrect Operands");
+                } else if (firstArg.equals("log")) {
+                    Repository.getLog(filter);
+                } else {
+                    Repository.getGlobalLog(filter);
+                }
                 break;
             case "find":
-                Repository.findCommit(args[1]);
+                if (args.length == 3) {
+                    Repository.findCommit(args[1], args[2]);
+                } else {
+                    Repository.findCommit(null, args[1]);
+                }
                 break;
             case "status":
                 if (!Repository.GITLET_DIR.isDirectory()) {
@@ -72,6 +137,50 @@ public class Main {
             case "merge":
                 Repository.merge(args[1]);
                 break;
+            case "repack":
+                Repository.repack();
+                break;
+            case "add-remote":
+                Repository.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                Repository.removeRemote(args[1]);
+                break;
+            case "push":
+                Repository.push(args[1], args[2]);
+                break;
+            case "fetch":
+                Repository.fetch(args[1], args[2]);
+                break;
+            case "pull":
+                Repository.pull(args[1], args[2]);
+                break;
+            case "upload-pack":
+                Remote.uploadPack();
+                break;
+            case "receive-pack":
+                Remote.receivePack();
+                break;
+            case "gc":
+                boolean dryRun = false;
+                int graceDays = GarbageCollector.DEFAULT_GRACE_DAYS;
+                try {
+                    for (int i = 1; i < args.length; i += 1) {
+                        if (args[i].equals("--dry-run")) {
+                            dryRun = true;
+                        } else if (args[i].equals("--grace") && i + 1 < args.length) {
+                            i += 1;
+                            graceDays = Integer.parseUnsignedInt(args[i]);
+                        } else {
+                            throw new NumberFormatException();
+                        }
+                    }
+                } catch (NumberFormatException excp) {
+                    System.out.println("Incorrect Operands");
+                    break;
+                }
+                Repository.gc(graceDays, dryRun);
+                break;
             default:
                 System.out.println("No command with that name exists");
                 break;
@@ -0,0 +1,302 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** Finds commits by their messages without reading any commit.
+ *
+ *  The message-index file is an inverted index of the first COVERED
+ *  records of the CommitJournal: for each trigram (three consecutive
+ *  characters) of the messages, lower-cased char by char, the sorted list
+ *  of the records whose message contains it, stored as varint-encoded
+ *  gaps.  A query looks up the trigrams of its text, intersects their
+ *  lists and checks only the records left; records appended since the
+ *  index was written are checked directly, and once there are more than
+ *  TAIL_LIMIT of those, the index is rewritten.
+ *
+ *  @author Anthony Zhang
+ */
+class MessageIndex {
+
+    /** Starts a message-index file ("GMIX"). */
+    private static final int MAGIC = 0x474d4958;
+    /** Version of the file layout. */
+    private static final int VERSION = 3;
+    /** Size of the header: magic, version, COVERED, the length of the
+     *  journal that covers, and the number of terms. */
+    private static final int HEADER_SIZE = 24;
+    /** Size of one term: its key, where its list starts and its length. */
+    private static final int TERM_SIZE = 16;
+    /** Most records we check outside the index before rewriting it. */
+    private static final int TAIL_LIMIT = 256;
+
+    /** Returns the ids, sorted, of the commits whose message is MESSAGE. */
+    static synchronized List<String> findExact(String message) {
+        return search(message, m -> m.equals(message));
+    }
+
+    /** Returns the ids, sorted, of the commits whose message contains
+     *  TEXT. */
+    static synchronized List<String> findSubstring(String text) {
+        return search(text, m -> m.contains(text));
+    }
+
+    /** Returns the ids, sorted, of the commits whose message has WORD as one
+     *  of its words, ignoring case. */
+    static synchronized List<String> findWord(String word) {
+        String lower = fold(word);
+        return search(lower, m -> hasWord(fold(m), lower));
+    }
+
+    /** Returns the ids, sorted, of the commits whose message MATCHES, all
+     *  of which contain TEXT ignoring case. */
+    private static List<String> search(String text, Predicate<String> matches) {
+        ByteBuffer journal = CommitJournal.load();
+        ByteBuffer index = load(journal);
+        List<String> result = new ArrayList<>();
+        int[] candidates = candidates(index, fold(text));
+        int count = candidates == null ? index.getInt(8) : candidates.length;
+        for (int i = 0; i < count; i += 1) {
+            int record = candidates == null ? i : candidates[i];
+            int offset = (int) index.getLong(offsetsStart(index) + 8 * record);
+            if (matches.test(CommitJournal.messageAt(journal, offset))) {
+                result.add(CommitJournal.idAt(journal, offset));
+            }
+        }
+        for (int offset = (int) index.getLong(12); CommitJournal.hasRecord(journal, offset);
+                offset = CommitJournal.next(journal, offset)) {
+            if (matches.test(CommitJournal.messageAt(journal, offset))) {
+                result.add(CommitJournal.idAt(journal, offset));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the covered records whose messages contain every trigram of
+     *  TEXT, in order, or null if TEXT is too short to have any. */
+    private static int[] candidates(ByteBuffer index, String text) {
+        long[] terms = trigrams(text);
+        if (terms.length == 0) {
+            return null;
+        }
+        int[] starts = new int[terms.length];
+        int[] lengths = new int[terms.length];
+        for (int i = 0; i < terms.length; i += 1) {
+            int term = findTerm(index, terms[i]);
+            if (term < 0) {
+                return new int[0];
+            }
+            starts[i] = index.getInt(HEADER_SIZE + TERM_SIZE * term + 8);
+            lengths[i] = index.getInt(HEADER_SIZE + TERM_SIZE * term + 12);
+        }
+        /** the shortest list first, so the others only filter it */
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Integer.compare(lengths[x], lengths[y]));
+        int[] result = postings(index, starts[order[0]], lengths[order[0]]);
+        for (int i = 1; i < order.length && result.length > 0; i += 1) {
+            result = intersect(result, postings(index, starts[order[i]], lengths[order[i]]));
+        }
+        return result;
+    }
+
+    /** Returns the position of the term KEY in the term table, or -1. */
+    private static int findTerm(ByteBuffer index, long key) {
+        int lo = 0;
+        int hi = index.getInt(20) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long found = index.getLong(HEADER_SIZE + TERM_SIZE * mid);
+            if (found < key) {
+                lo = mid + 1;
+            } else if (found > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the LENGTH records of the list that starts at START. */
+    private static int[] postings(ByteBuffer index, int start, int length) {
+        int[] result = new int[length];
+        int pos = start;
+        int record = -1;
+        for (int i = 0; i < length; i += 1) {
+            int gap = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = index.get(pos) & 0xff;
+                pos += 1;
+                gap |= (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    break;
+                }
+            }
+            record += gap;
+            result[i] = record;
+        }
+        return result;
+    }
+
+    /** Returns the values in both of the sorted arrays A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the distinct trigrams of TEXT as keys, sorted. */
+    private static long[] trigrams(String text) {
+        long[] keys = new long[Math.max(0, text.length() - 2)];
+        for (int i = 0; i < keys.length; i += 1) {
+            keys[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16)
+                    | text.charAt(i + 2);
+        }
+        return Arrays.stream(keys).sorted().distinct().toArray();
+    }
+
+    /** Returns TEXT with each char lower-cased on its own.  Unlike
+     *  String.toLowerCase, this never looks at the chars around one or
+     *  changes the length, so the fold of a substring is always a
+     *  substring of the fold, and so are its trigrams. */
+    private static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /** Returns true iff WORD occurs in TEXT with no letter or digit just
+     *  before or after it. */
+    private static boolean hasWord(String text, String word) {
+        for (int at = text.indexOf(word); at >= 0; at = text.indexOf(word, at + 1)) {
+            int end = at + word.length();
+            if ((at == 0 || !Character.isLetterOrDigit(text.charAt(at - 1)))
+                    && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Maps the index of JOURNAL into memory, first rewriting it if it is
+     *  missing or too far behind. */
+    private static ByteBuffer load(ByteBuffer journal) {
+        File file = Repository.MESSAGE_INDEX;
+        if (file.exists()) {
+            ByteBuffer index = IdIndex.map(file);
+            if (index.getInt(0) == MAGIC && index.getInt(4) == VERSION
+                    && index.getLong(12) <= journal.limit()
+                    && CommitJournal.count(journal, (int) index.getLong(12)) <= TAIL_LIMIT) {
+                return index;
+            }
+        }
+        write(journal);
+        return IdIndex.map(file);
+    }
+
+    /** Writes an index of every record in JOURNAL. */
+    private static void write(ByteBuffer journal) {
+        List<Integer> offsets = new ArrayList<>();
+        Map<Long, Postings> terms = new HashMap<>();
+        int end = 0;
+        for (; CommitJournal.hasRecord(journal, end); end = CommitJournal.next(journal, end)) {
+            int offset = end;
+            int record = offsets.size();
+            offsets.add(offset);
+            for (long key : trigrams(fold(CommitJournal.messageAt(journal, offset)))) {
+                terms.computeIfAbsent(key, k -> new Postings()).add(record);
+            }
+        }
+        long[] keys = terms.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        /** a file of our own, since another process may be rebuilding the
+         * index at the same time */
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("message-index", ".tmp", Repository.GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(offsets.size());
+                out.writeLong(end);
+                out.writeInt(keys.length);
+                int start = HEADER_SIZE + TERM_SIZE * keys.length + 8 * offsets.size();
+                for (long key : keys) {
+                    Postings postings = terms.get(key);
+                    out.writeLong(key);
+                    out.writeInt(start);
+                    out.writeInt(postings.count);
+                    start += postings.bytes.size();
+                }
+                for (int offset : offsets) {
+                    out.writeLong(offset);
+                }
+                for (long key : keys) {
+                    terms.get(key).bytes.writeTo(out);
+                }
+            }
+            Files.move(tmp.toPath(), Repository.MESSAGE_INDEX.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns where the record offsets start in INDEX. */
+    private static int offsetsStart(ByteBuffer index) {
+        return HEADER_SIZE + TERM_SIZE * index.getInt(20);
+    }
+
+    /** The list of records of one term while it is being built. */
+    private static class Postings {
+        /** The gaps between the records, as varints. */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        /** The number of records and the last of them. */
+        private int count;
+        private int last = -1;
+
+        /** Adds RECORD, which is greater than any added before. */
+        void add(int record) {
+            Delta.writeVarint(bytes, record - last);
+            last = record;
+            count += 1;
+        }
+    }
+}
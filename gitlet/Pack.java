@@ -0,0 +1,756 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** The pack: one append-only file in the PACKS directory holding commits,
+ *  trees and blobs that used to be loose files, plus an index that maps object
+ *  ids to their offsets in the pack.  Each pack entry is a type byte, the
+ *  id of its delta base (delta entries only), the size of its payload and
+ *  the zlib-compressed payload.  A blob may be stored as a Delta against
+ *  another version of the same file.
+ *
+ *  The index is a memory-mapped IdIndex of the packed ids followed by
+ *  their pack offsets and their object types.
+ *
+ *  @author Anthony Zhang
+ */
+class Pack {
+
+    /** Object type of a commit. */
+    static final byte COMMIT = 1;
+    /** Object type of a blob. */
+    static final byte BLOB = 2;
+    /** Entry type of a blob stored as a delta against another object. */
+    private static final byte DELTA = 3;
+    /** Object type of a tree. */
+    static final byte TREE = 4;
+
+    /** The pack file. */
+    static final File PACK_FILE = join(Repository.PACKS, "objects.pack");
+    /** The index of PACK_FILE. */
+    static final File INDEX_FILE = join(Repository.PACKS, "objects.idx");
+
+    /** Starts a pack file ("GPAK"). */
+    private static final int PACK_MAGIC = 0x4750414b;
+    /** Starts an index file ("GIDX"). */
+    private static final int INDEX_MAGIC = 0x47494458;
+    /** Version of both file layouts. */
+    private static final int VERSION = 1;
+    /** Length of the magic number and version that start a pack. */
+    private static final int PACK_HEADER_SIZE = 8;
+    /** Length of an id in bytes. */
+    private static final int ID_BYTES = IdIndex.ID_BYTES;
+
+    /** Number of recent blobs considered as delta bases. */
+    private static final int WINDOW = 10;
+    /** Longest chain of deltas we allow before storing a blob whole. */
+    private static final int MAX_DEPTH = 20;
+    /** Blobs larger than this are never deltified. */
+    private static final int MAX_DELTA_SIZE = 8 << 20;
+    /** Name of the LockFile held while the pack or its index is written. */
+    private static final String LOCK = "pack";
+
+    /** The contents of INDEX_FILE mapped into memory, or null if not yet
+     *  loaded. */
+    private static volatile ByteBuffer index;
+    /** The sorted ids in index. */
+    private static volatile IdIndex ids;
+
+    /** Returns true iff the object ID is in the pack. */
+    static boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the ids of all packed objects of type TYPE, in sorted order. */
+    static List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        if (!loadIndex()) {
+            return result;
+        }
+        for (int pos = 0; pos < ids.count(); pos += 1) {
+            if (index.get(typesStart() + pos) == type) {
+                result.add(ids.idAt(pos));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of the packed object ID, or null if it is not
+     *  in the pack. */
+    static byte[] read(String id) {
+        InputStream in = open(id);
+        if (in == null) {
+            return null;
+        }
+        try (in) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the contents of the packed object ID, or null if
+     *  it is not in the pack. */
+    static InputStream open(String id) {
+        int pos = find(id);
+        if (pos < 0) {
+            return null;
+        }
+        try {
+            FileInputStream file = new FileInputStream(PACK_FILE);
+            file.getChannel().position(index.getLong(offsetsStart() + 8 * pos));
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Stats.counting(file)));
+            byte type = in.readByte();
+            String base = null;
+            if (type == DELTA) {
+                byte[] baseId = new byte[ID_BYTES];
+                in.readFully(baseId);
+                base = bytesToUid(baseId, 0);
+            }
+            Delta.readVarint(in);
+            InflaterInputStream payload = new InflaterInputStream(in);
+            if (base == null) {
+                return payload;
+            }
+            byte[] delta;
+            try (payload) {
+                delta = payload.readAllBytes();
+            }
+            return new ByteArrayInputStream(Delta.apply(read(base), delta));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Moves every loose commit, tree and blob into the pack, storing blobs as
+     *  deltas against similar versions where that saves space, and then
+     *  deletes the loose files. */
+    static void repack() {
+        try (LockFile lock = LockFile.acquire(LOCK)) {
+            /** another process may have changed the pack since we mapped its index */
+            reset();
+            packLooseObjects();
+        }
+    }
+
+    /** Does the work of repack, with the pack's lock held. */
+    private static void packLooseObjects() {
+        Repository.PACKS.mkdir();
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        TreeMap<String, Byte> types = new TreeMap<>();
+        readIndex(offsets, types);
+        List<File> packed = new ArrayList<>();
+        try (CountingOutputStream out = openForAppend()) {
+            Map<String, String> paths = new HashMap<>();
+            for (String id : Commit.allIds()) {
+                Commit commit;
+                try {
+                    commit = Commit.read(id);
+                } catch (IllegalArgumentException excp) {
+                    continue;
+                }
+                for (Map.Entry<String, String> file : commit.getAllfiles().entrySet()) {
+                    paths.putIfAbsent(file.getValue(), file.getKey());
+                }
+                File loose = join(Repository.COMMITS, id);
+                if (loose.exists() && !offsets.containsKey(id)) {
+                    offsets.put(id, out.count);
+                    types.put(id, COMMIT);
+                    writeEntry(out, COMMIT, null, readContents(loose));
+                    packed.add(loose);
+                }
+            }
+            List<String> trees = plainFilenamesIn(Repository.TREES);
+            for (String id : trees == null ? new ArrayList<String>() : trees) {
+                File loose = join(Repository.TREES, id);
+                if (id.length() == UID_LENGTH && !offsets.containsKey(id)) {
+                    offsets.put(id, out.count);
+                    types.put(id, TREE);
+                    writeEntry(out, TREE, null, readContents(loose));
+                    packed.add(loose);
+                }
+            }
+            List<String> blobs = new ArrayList<>();
+            Map<String, Long> sizes = new HashMap<>();
+            for (String id : plainFilenamesIn(Repository.BLOBS)) {
+                /** raw blobs stay loose, where checkout can copy them directly,
+                 * and so do manifests, which would be packed whole */
+                if (id.length() == UID_LENGTH && !offsets.containsKey(id)
+                        && !BlobStore.isRaw(id) && !BlobStore.isChunked(id)) {
+                    blobs.add(id);
+                    sizes.put(id, join(Repository.BLOBS, id).length());
+                }
+            }
+            /** versions of the same file end up next to each other, largest first */
+            blobs.sort(Comparator.comparing((String id) -> paths.getOrDefault(id, ""))
+                    .thenComparing(id -> -sizes.get(id)));
+            Deque<DeltaBase> window = new ArrayDeque<>();
+            for (String id : blobs) {
+                offsets.put(id, out.count);
+                types.put(id, BLOB);
+                packed.add(join(Repository.BLOBS, id));
+                if (sizes.get(id) > MAX_DELTA_SIZE) {
+                    try (InputStream in = BlobStore.open(id)) {
+                        writeEntry(out, BLOB, in);
+                    }
+                    continue;
+                }
+                byte[] data;
+                try (InputStream in = BlobStore.open(id)) {
+                    data = in.readAllBytes();
+                }
+                byte[] bestDelta = null;
+                DeltaBase bestBase = null;
+                for (DeltaBase base : window) {
+                    if (base.depth >= MAX_DEPTH) {
+                        continue;
+                    }
+                    byte[] delta = Delta.create(base.data, data);
+                    if (delta != null && (bestDelta == null || delta.length < bestDelta.length)) {
+                        bestDelta = delta;
+                        bestBase = base;
+                    }
+                }
+                int depth = 0;
+                if (bestDelta != null) {
+                    writeEntry(out, DELTA, bestBase.id, bestDelta);
+                    depth = bestBase.depth + 1;
+                } else {
+                    writeEntry(out, BLOB, null, data);
+                }
+                window.addLast(new DeltaBase(id, data, depth));
+                if (window.size() > WINDOW) {
+                    window.removeFirst();
+                }
+            }
+            out.flush();
+            out.file.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(offsets, types);
+        for (File loose : packed) {
+            loose.delete();
+        }
+    }
+
+    /** Starts adding objects at the end of the pack.  They can be found
+     *  once the Appender has finished.  The Appender holds the pack's lock
+     *  until it is closed. */
+    static synchronized Appender append() {
+        LockFile lock = LockFile.acquire(LOCK);
+        Appender result = null;
+        try {
+            reset();
+            Repository.PACKS.mkdir();
+            TreeMap<String, Long> offsets = new TreeMap<>();
+            TreeMap<String, Byte> types = new TreeMap<>();
+            readIndex(offsets, types);
+            result = new Appender(openForAppend(), offsets, types, lock);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (result == null) {
+                lock.close();
+            }
+        }
+    }
+
+    /** Adds the offset and type of every object in the index to OFFSETS and
+     *  TYPES. */
+    private static void readIndex(TreeMap<String, Long> offsets, TreeMap<String, Byte> types) {
+        if (loadIndex()) {
+            for (int pos = 0; pos < ids.count(); pos += 1) {
+                String id = ids.idAt(pos);
+                offsets.put(id, index.getLong(offsetsStart() + 8 * pos));
+                types.put(id, index.get(typesStart() + pos));
+            }
+        }
+    }
+
+    /** Opens PACK_FILE for appending after its last indexed entry, writing
+     *  its header if it is new.  Anything after that entry was left by an
+     *  append that never finished, and is cut off first. */
+    private static CountingOutputStream openForAppend() throws IOException {
+        long existing = indexedEnd();
+        if (PACK_FILE.length() > existing) {
+            try (FileChannel pack = FileChannel.open(PACK_FILE.toPath(),
+                    StandardOpenOption.WRITE)) {
+                pack.truncate(existing);
+            }
+        }
+        FileOutputStream file = new FileOutputStream(PACK_FILE, true);
+        CountingOutputStream out = new CountingOutputStream(file, existing);
+        if (existing == 0) {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(PACK_MAGIC);
+            header.writeInt(VERSION);
+        }
+        return out;
+    }
+
+    /** Returns where the last indexed entry of PACK_FILE ends: just after
+     *  the header if no entry is indexed, and 0 if not even the header was
+     *  written. */
+    private static long indexedEnd() throws IOException {
+        long last = -1;
+        if (loadIndex()) {
+            for (int pos = 0; pos < ids.count(); pos += 1) {
+                last = Math.max(last, index.getLong(offsetsStart() + 8 * pos));
+            }
+        }
+        if (last < 0) {
+            return PACK_FILE.length() >= PACK_HEADER_SIZE ? PACK_HEADER_SIZE : 0;
+        }
+        try (FileChannel pack = FileChannel.open(PACK_FILE.toPath(), StandardOpenOption.READ)) {
+            return entryEnd(pack, last);
+        }
+    }
+
+    /** Returns where the entry starting at START in the pack IN ends, which
+     *  is where its compressed payload does. */
+    private static long entryEnd(FileChannel in, long start) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(1 + ID_BYTES + 10);
+        in.read(header, start);
+        header.flip();
+        if (header.get() == DELTA) {
+            header.position(1 + ID_BYTES);
+        }
+        while ((header.get() & 0x80) != 0) {
+            /** skips the payload size */
+        }
+        long pos = start + header.position();
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            byte[] scratch = new byte[1 << 16];
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    buf.clear();
+                    int n = in.read(buf, pos);
+                    if (n < 0) {
+                        throw new IOException("truncated pack");
+                    }
+                    pos += n;
+                    inflater.setInput(buf.array(), 0, n);
+                }
+                inflater.inflate(scratch);
+            }
+            return pos - inflater.getRemaining();
+        } catch (DataFormatException excp) {
+            throw new IOException("corrupt pack");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Writes one pack entry of type TYPE with delta base BASE (null for a
+     *  whole object) and payload PAYLOAD to OUT. */
+    private static void writeEntry(OutputStream out, byte type, String base, byte[] payload)
+            throws IOException {
+        writeHeader(out, type, base, payload.length);
+        deflate(new ByteArrayInputStream(payload), out);
+    }
+
+    /** Writes one whole-object entry of type TYPE, whose payload is streamed
+     *  from IN, to OUT.  The header gives the size of the payload, which is
+     *  only known once it is read, so the payload is compressed into a
+     *  SpillBuffer first. */
+    private static void writeEntry(OutputStream out, byte type, InputStream in)
+            throws IOException {
+        BlobStore.SpillBuffer compressed = new BlobStore.SpillBuffer();
+        try {
+            long size = deflate(in, compressed);
+            compressed.close();
+            writeHeader(out, type, null, size);
+            compressed.writeTo(out);
+        } finally {
+            compressed.discard();
+        }
+    }
+
+    /** Writes to OUT the header of a pack entry of type TYPE with delta base
+     *  BASE (null for a whole object) and a payload of SIZE bytes. */
+    private static void writeHeader(OutputStream out, byte type, String base, long size)
+            throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(type);
+        if (base != null) {
+            header.write(uidToBytes(base));
+        }
+        Delta.writeVarint(header, size);
+        header.writeTo(out);
+    }
+
+    /** Writes the contents of IN, compressed, to OUT and returns their size
+     *  before compression. */
+    private static long deflate(InputStream in, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream payload = new DeflaterOutputStream(out, deflater, 1 << 16);
+            long size = in.transferTo(payload);
+            payload.finish();
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Writes the index of the objects in OFFSETS, whose types are TYPES. */
+    private static void writeIndex(TreeMap<String, Long> offsets, TreeMap<String, Byte> types) {
+        File tmp = join(Repository.PACKS, "objects.idx.tmp");
+        writeIndex(tmp, offsets, types);
+        try {
+            Files.move(tmp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        reset();
+    }
+
+    /** Writes to FILE an index of the objects in OFFSETS, whose types are
+     *  TYPES. */
+    private static void writeIndex(File file, TreeMap<String, Long> offsets,
+                                   TreeMap<String, Byte> types) {
+        int[] fanout = IdIndex.fanout(new ArrayList<>(offsets.keySet()));
+        try (FileOutputStream stream = new FileOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (String id : offsets.keySet()) {
+                out.write(uidToBytes(id));
+            }
+            for (long offset : offsets.values()) {
+                out.writeLong(offset);
+            }
+            for (byte type : types.values()) {
+                out.writeByte(type);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rewrites the pack without the objects REMOVED.  Every other entry is
+     *  copied as it is, except that a delta whose base is removed is stored
+     *  whole instead.
+     *
+     *  The new pack and index are written next to the old ones with a ".new"
+     *  suffix, and then renamed over them, the pack first.  Until the pack is
+     *  renamed the old files are untouched; once it is, the new index is
+     *  renamed too, if need be by recover. */
+    static synchronized void rewrite(Set<String> removed) {
+        try (LockFile lock = LockFile.acquire(LOCK)) {
+            reset();
+            rewriteLocked(removed);
+        }
+    }
+
+    /** Does the work of rewrite, with the pack's lock held. */
+    private static void rewriteLocked(Set<String> removed) {
+        if (!loadIndex()) {
+            return;
+        }
+        TreeMap<Long, String> byOffset = new TreeMap<>();
+        for (int pos = 0; pos < ids.count(); pos += 1) {
+            byOffset.put(index.getLong(offsetsStart() + 8 * pos), ids.idAt(pos));
+        }
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        TreeMap<String, Byte> types = new TreeMap<>();
+        File newPack = newFile(PACK_FILE);
+        File newIndex = newFile(INDEX_FILE);
+        try (FileChannel old = FileChannel.open(PACK_FILE.toPath(), StandardOpenOption.READ);
+             CountingOutputStream out = new CountingOutputStream(
+                     new FileOutputStream(newPack), 0)) {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(PACK_MAGIC);
+            header.writeInt(VERSION);
+            for (Map.Entry<Long, String> entry : byOffset.entrySet()) {
+                String id = entry.getValue();
+                if (removed.contains(id)) {
+                    continue;
+                }
+                long start = entry.getKey();
+                Long next = byOffset.higherKey(start);
+                /** the last entry ends with its payload, not the file, which
+                 * may hold the remains of an append that never finished */
+                long end = next == null ? entryEnd(old, start) : next;
+                byte type = index.get(typesStart() + ids.find(id));
+                offsets.put(id, out.count);
+                types.put(id, type);
+                ByteBuffer kind = ByteBuffer.allocate(1 + ID_BYTES);
+                old.read(kind, start);
+                if (kind.get(0) == DELTA && removed.contains(bytesToUid(kind.array(), 1))) {
+                    writeEntry(out, type, null, read(id));
+                } else {
+                    copy(old, start, end, out);
+                }
+            }
+            out.flush();
+            out.file.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(newIndex, offsets, types);
+        try {
+            Files.move(newPack.toPath(), PACK_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        recover();
+        reset();
+    }
+
+    /** Writes bytes [START, END) of the file IN to OUT. */
+    private static void copy(FileChannel in, long start, long end, OutputStream out)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(end - start, 1 << 16));
+        for (long pos = start; pos < end;) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - pos));
+            int n = in.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("truncated pack");
+            }
+            out.write(buf.array(), 0, n);
+            pos += n;
+        }
+    }
+
+    /** Finishes or discards a rewrite that was interrupted: if the new pack
+     *  was already renamed into place, renames its index too, and otherwise
+     *  deletes whatever new files were written. */
+    private static void recover() {
+        File newPack = newFile(PACK_FILE);
+        File newIndex = newFile(INDEX_FILE);
+        if (newPack.exists()) {
+            newPack.delete();
+            newIndex.delete();
+        } else if (newIndex.exists()) {
+            try {
+                Files.move(newIndex.toPath(), INDEX_FILE.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns the file that waits to replace FILE in a rewrite. */
+    private static File newFile(File file) {
+        return new File(file.getPath() + ".new");
+    }
+
+    /** Forgets the mapped index, so that it is mapped again when next
+     *  needed; for when another process may have rewritten it. */
+    static synchronized void reset() {
+        index = null;
+        ids = null;
+    }
+
+    /** Returns the position of ID in the index, or -1 if it is not there. */
+    private static int find(String id) {
+        if (!loadIndex()) {
+            return -1;
+        }
+        return ids.find(id);
+    }
+
+    /** Maps the index into memory if there is one, returning false if there
+     *  is not. */
+    private static synchronized boolean loadIndex() {
+        if (index == null) {
+            recover();
+            if (!INDEX_FILE.exists()) {
+                return false;
+            }
+            index = IdIndex.map(INDEX_FILE);
+            if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+                throw error("Unrecognized pack index.");
+            }
+            ids = new IdIndex(index, 8);
+        }
+        return true;
+    }
+
+    /** Returns where the offsets start in the index. */
+    private static int offsetsStart() {
+        return ids.idsEnd();
+    }
+
+    /** Returns where the object types start in the index. */
+    private static int typesStart() {
+        return offsetsStart() + ids.count() * 8;
+    }
+
+    /** Adds whole objects at the end of the pack, compressing each batch of
+     *  them in parallel.  The objects are found only once finish has
+     *  written the new index; if it never does, they are left as unindexed
+     *  bytes at the end of the pack, which the next append or rewrite
+     *  drops. */
+    static class Appender implements AutoCloseable {
+        /** Number of objects compressed at once. */
+        private static final int BATCH = 64;
+
+        /** The end of the pack. */
+        private final CountingOutputStream out;
+        /** The pack's lock, held until we are closed. */
+        private final LockFile lock;
+        /** The offsets and types of the objects in the pack so far. */
+        private final TreeMap<String, Long> offsets;
+        private final TreeMap<String, Byte> types;
+        /** The objects added but not yet written, with their types and
+         *  contents. */
+        private final List<String> pendingIds = new ArrayList<>();
+        private final List<Byte> pendingTypes = new ArrayList<>();
+        private final List<byte[]> pendingContents = new ArrayList<>();
+
+        private Appender(CountingOutputStream out, TreeMap<String, Long> offsets,
+                         TreeMap<String, Byte> types, LockFile lock) {
+            this.out = out;
+            this.lock = lock;
+            this.offsets = offsets;
+            this.types = types;
+        }
+
+        /** Adds the object ID of type TYPE with CONTENTS, unless it is in
+         *  the pack already. */
+        void add(byte type, String id, byte[] contents) throws IOException {
+            if (offsets.containsKey(id) || pendingIds.contains(id)) {
+                return;
+            }
+            pendingIds.add(id);
+            pendingTypes.add(type);
+            pendingContents.add(contents);
+            if (pendingIds.size() == BATCH) {
+                writePending();
+            }
+        }
+
+        /** Makes the objects added so far part of the pack. */
+        void finish() throws IOException {
+            writePending();
+            out.flush();
+            out.file.getFD().sync();
+            writeIndex(offsets, types);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                lock.close();
+            }
+        }
+
+        /** Compresses the pending objects in parallel and writes them. */
+        private void writePending() throws IOException {
+            List<byte[]> entries = IntStream.range(0, pendingIds.size()).parallel()
+                .mapToObj(i -> {
+                    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+                    try {
+                        writeEntry(entry, pendingTypes.get(i), null, pendingContents.get(i));
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                    return entry.toByteArray();
+                })
+                .collect(Collectors.toList());
+            for (int i = 0; i < entries.size(); i += 1) {
+                offsets.put(pendingIds.get(i), out.count);
+                types.put(pendingIds.get(i), pendingTypes.get(i));
+                out.write(entries.get(i));
+            }
+            pendingIds.clear();
+            pendingTypes.clear();
+            pendingContents.clear();
+        }
+    }
+
+    /** A recently packed blob that later blobs may be stored as deltas of. */
+    private static class DeltaBase {
+        /** The blob's id. */
+        private final String id;
+        /** The blob's contents. */
+        private final byte[] data;
+        /** Number of deltas that must be applied to rebuild the blob. */
+        private final int depth;
+
+        DeltaBase(String id, byte[] data, int depth) {
+            this.id = id;
+            this.data = data;
+            this.depth = depth;
+        }
+    }
+
+    /** An output stream that keeps track of its position in the pack. */
+    private static class CountingOutputStream extends FilterOutputStream {
+        /** The pack file being appended to. */
+        private final FileOutputStream file;
+        /** Offset in the pack of the next byte written. */
+        private long count;
+
+        CountingOutputStream(FileOutputStream file, long start) {
+            super(new BufferedOutputStream(file, 1 << 16));
+            this.file = file;
+            this.count = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count += 1;
+            Stats.wrote(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+            Stats.wrote(len);
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static gitlet.Utils.*;
+
+/** Fetching from and pushing to remotes: other repositories on a local or
+ *  mounted path.
+ *
+ *  As in Git, the remote side runs as a process of its own in the remote's
+ *  working directory, since every path of the repository code is fixed to
+ *  the directory a process starts in.  Fetch talks to "upload-pack" there
+ *  and push to "receive-pack", over the child's standard input and output:
+ *
+ *   1. The remote sends its branches.
+ *   2. The fetching or pushing side says which commit it wants moved, or
+ *      nothing if there is nothing to move.
+ *   3. The side that will receive objects lists commits it has, starting
+ *      at its branches, in batches of BATCH; the side that sends answers
+ *      which of them it has too.  Ancestors of a commit both sides have are
+ *      never listed, so this takes a round per commit only one side has,
+ *      layer by layer, and usually a single round.
+ *   4. The sending side sends, as one stream, the commits that cannot be
+ *      reached from the commits both have, then the trees and blobs of
+ *      those commits that the commits just before them do not share.
+ *      Objects are read a batch at a time in parallel, blobs go first and
+ *      commits last in the order they were made, so the receiving side
+ *      never stores a commit whose files it lacks.
+ *   5. The receiving side checks every id against the contents, appends
+ *      the objects to its pack, compressing them in parallel, and makes
+ *      them visible at once by writing the pack index; only blobs too large
+ *      to hold in memory go to the BlobStore.  Then it adds the commits to
+ *      its CommitGraph and CommitJournal and moves the branch.
+ *
+ *  So a sync costs time in proportion to what is missing, not to the
+ *  whole history.  Fetched branches are named REMOTE/BRANCH, so gc keeps
+ *  what they point to.
+ *
+ *  @author Anthony Zhang
+ */
+class Remote {
+
+    /** Starts what the remote side sends ("GRMT"). */
+    private static final int MAGIC = 0x47524d54;
+    /** Most commits listed, or objects read, at once. */
+    private static final int BATCH = 64;
+    /** Blobs up to this size are read, and stored, whole in memory. */
+    private static final int IN_MEMORY_LIMIT = 1 << 18;
+    /** Size of the pieces objects are sent in. */
+    private static final int CHUNK_SIZE = 1 << 16;
+    /** Ends the objects of a transfer. */
+    private static final byte END = 0;
+    /** Length of an id in bytes. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Fetches the branch BRANCH of the remote NAME into the branch
+     *  NAME/BRANCH, returning false if it cannot. */
+    static boolean fetch(String name, String branch) {
+        File remote = remoteDir(name);
+        if (remote == null) {
+            return false;
+        }
+        RepositorySession session = RepositorySession.get();
+        Process process = start(remote, "upload-pack");
+        try (DataInputStream in = input(process.getInputStream());
+             DataOutputStream out = output(process.getOutputStream())) {
+            String tip = readBranches(in).get(branch);
+            if (tip == null) {
+                out.writeUTF("");
+                System.out.println("That remote does not have that branch.");
+                return false;
+            }
+            CommitGraph graph = CommitGraph.load();
+            if (graph.contains(tip)) {
+                out.writeUTF("");
+            } else {
+                out.writeUTF(tip);
+                sendHaves(in, out, graph, session.branches().values());
+                receiveObjects(in, graph);
+            }
+            session.setBranch(name + "/" + branch, tip);
+        } catch (IOException excp) {
+            throw error("Remote %s did not answer.", name);
+        } finally {
+            waitFor(process);
+        }
+        return true;
+    }
+
+    /** Pushes the head commit to the branch BRANCH of the remote NAME,
+     *  which must not have commits the head commit lacks. */
+    static void push(String name, String branch) {
+        File remote = remoteDir(name);
+        if (remote == null) {
+            return;
+        }
+        String head = RepositorySession.get().headCommitId();
+        Process process = start(remote, "receive-pack");
+        try (DataInputStream in = input(process.getInputStream());
+             DataOutputStream out = output(process.getOutputStream())) {
+            String old = readBranches(in).get(branch);
+            CommitGraph graph = CommitGraph.load();
+            if (old != null && !isAncestor(graph, old, head)) {
+                out.writeUTF("");
+                System.out.println("Please pull down remote changes before pushing.");
+                return;
+            }
+            out.writeUTF(branch);
+            out.writeUTF(head);
+            out.flush();
+            sendObjects(out, graph, head, answerHaves(in, out, graph));
+            if (!in.readBoolean()) {
+                System.out.println(in.readUTF());
+            }
+        } catch (IOException excp) {
+            throw error("Remote %s did not answer.", name);
+        } finally {
+            waitFor(process);
+        }
+    }
+
+    /** Serves a fetch from the repository in the working directory, over
+     *  standard input and output. */
+    static void uploadPack() {
+        try (DataInputStream in = input(new FileInputStream(FileDescriptor.in));
+             DataOutputStream out = output(new FileOutputStream(FileDescriptor.out))) {
+            writeBranches(out);
+            String want = in.readUTF();
+            if (want.isEmpty()) {
+                return;
+            }
+            CommitGraph graph = CommitGraph.load();
+            if (!graph.contains(want)) {
+                throw error("No commit with that id exists.");
+            }
+            sendObjects(out, graph, want, answerHaves(in, out, graph));
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Serves a push to the repository in the working directory, over
+     *  standard input and output. */
+    static void receivePack() {
+        RepositorySession session = RepositorySession.get();
+        try (DataInputStream in = input(new FileInputStream(FileDescriptor.in));
+             DataOutputStream out = output(new FileOutputStream(FileDescriptor.out))) {
+            writeBranches(out);
+            String branch = in.readUTF();
+            if (branch.isEmpty()) {
+                return;
+            }
+            String tip = in.readUTF();
+            CommitGraph graph = CommitGraph.load();
+            sendHaves(in, out, graph, session.branches().values());
+            receiveObjects(in, graph);
+            /** checked again here, in case the branch moved since we sent it */
+            String old = session.branch(branch);
+            if (old != null && !isAncestor(graph, old, tip)) {
+                out.writeBoolean(false);
+                out.writeUTF("Please pull down remote changes before pushing.");
+            } else {
+                session.setBranch(branch, tip);
+                out.writeBoolean(true);
+            }
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the .gitlet directory of the remote NAME, or null after
+     *  saying why there is none. */
+    private static File remoteDir(String name) {
+        String path = RepositorySession.get().remotes().get(name);
+        if (path == null) {
+            System.out.println("A remote with that name does not exist.");
+            return null;
+        }
+        File dir = new File(path.replace("/", File.separator));
+        if (!dir.isAbsolute()) {
+            dir = join(Repository.CWD, dir.getPath());
+        }
+        if (!dir.isDirectory()) {
+            System.out.println("Remote directory not found.");
+            return null;
+        }
+        return dir;
+    }
+
+    /** Starts the SERVICE of the repository whose .gitlet directory is
+     *  REMOTE, in a process of its own. */
+    private static Process start(File remote, String service) {
+        List<String> classpath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classpath.add(new File(entry).getAbsolutePath());
+        }
+        ProcessBuilder builder = new ProcessBuilder(
+                join(new File(System.getProperty("java.home")), "bin", "java").getPath(),
+                "-cp", String.join(File.pathSeparator, classpath), "gitlet.Main", service);
+        builder.directory(remote.getAbsoluteFile().getParentFile());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        try {
+            return builder.start();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Waits for the remote side PROCESS to finish. */
+    private static void waitFor(Process process) {
+        try {
+            process.waitFor();
+        } catch (InterruptedException excp) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns true iff the commit ANCESTOR is COMMIT or one of its
+     *  ancestors in GRAPH. */
+    private static boolean isAncestor(CommitGraph graph, String ancestor, String commit) {
+        return graph.contains(ancestor) && ancestor.equals(graph.splitPoint(ancestor, commit));
+    }
+
+    /** Sends the branches of this repository to OUT. */
+    private static void writeBranches(DataOutputStream out) throws IOException {
+        Map<String, String> branches = RepositorySession.get().branches();
+        out.writeInt(MAGIC);
+        out.writeInt(branches.size());
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            out.writeUTF(branch.getKey());
+            out.writeUTF(branch.getValue());
+        }
+        out.flush();
+    }
+
+    /** Returns the branches the remote sent to IN. */
+    private static TreeMap<String, String> readBranches(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw error("Remote directory not found.");
+        }
+        TreeMap<String, String> branches = new TreeMap<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            branches.put(in.readUTF(), in.readUTF());
+        }
+        return branches;
+    }
+
+    /** Lists to OUT the commits of GRAPH the other side may have, starting
+     *  at TIPS, and reads from IN which of them it does have.  Parents are
+     *  listed only of commits it does not have. */
+    private static void sendHaves(DataInputStream in, DataOutputStream out,
+                                  CommitGraph graph, Collection<String> tips)
+            throws IOException {
+        try (Stats.Phase phase = Stats.phase("negotiate")) {
+            Set<String> listed = new HashSet<>();
+            List<String> pending = new ArrayList<>();
+            for (String tip : tips) {
+                if (graph.contains(tip) && listed.add(tip)) {
+                    pending.add(tip);
+                }
+            }
+            while (!pending.isEmpty()) {
+                List<String> batch = new ArrayList<>(pending.subList(0, Math.min(BATCH, pending.size())));
+                pending.subList(0, batch.size()).clear();
+                out.writeInt(batch.size());
+                for (String id : batch) {
+                    out.write(uidToBytes(id));
+                }
+                out.flush();
+                for (String id : batch) {
+                    if (in.readBoolean()) {
+                        continue;
+                    }
+                    for (String parent : graph.parents(id)) {
+                        if (listed.add(parent)) {
+                            pending.add(parent);
+                        }
+                    }
+                }
+            }
+            out.writeInt(0);
+            out.flush();
+        }
+    }
+
+    /** Answers the lists of commits sent to IN by sendHaves, writing to OUT
+     *  whether GRAPH has each, and returns the ones it has. */
+    private static List<String> answerHaves(DataInputStream in, DataOutputStream out,
+                                            CommitGraph graph) throws IOException {
+        try (Stats.Phase phase = Stats.phase("negotiate")) {
+            List<String> common = new ArrayList<>();
+            byte[] raw = new byte[ID_BYTES];
+            for (int n = in.readInt(); n > 0; n = in.readInt()) {
+                for (int i = 0; i < n; i += 1) {
+                    in.readFully(raw);
+                    String id = bytesToUid(raw, 0);
+                    boolean has = graph.contains(id);
+                    if (has) {
+                        common.add(id);
+                    }
+                    out.writeBoolean(has);
+                }
+                out.flush();
+            }
+            return common;
+        }
+    }
+
+    /** Sends to OUT the commits of GRAPH from WANT back to, but not into,
+     *  the history of the commits COMMON, with their trees and blobs. */
+    private static void sendObjects(DataOutputStream out, CommitGraph graph, String want,
+                                    List<String> common) throws IOException {
+        try (Stats.Phase phase = Stats.phase("send objects")) {
+            Set<String> shared = new HashSet<>(graph.reachable(common));
+            List<String> commits = new ArrayList<>();
+            Set<String> edges = new HashSet<>();
+            for (String id : graph.reachable(List.of(want))) {
+                if (!shared.contains(id)) {
+                    commits.add(id);
+                    for (String parent : graph.parents(id)) {
+                        if (shared.contains(parent)) {
+                            edges.add(parent);
+                        }
+                    }
+                }
+            }
+            /** what the commits just before the missing ones have is not sent */
+            Set<String> sharedTrees = new HashSet<>();
+            Set<String> sharedBlobs = new HashSet<>();
+            for (String id : edges) {
+                markFiles(CommitStore.get(id), sharedTrees, sharedBlobs);
+            }
+            Set<String> trees = new HashSet<>(sharedTrees);
+            Set<String> blobs = new HashSet<>(sharedBlobs);
+            for (String id : commits) {
+                markFiles(CommitStore.get(id), trees, blobs);
+            }
+            trees.removeAll(sharedTrees);
+            blobs.removeAll(sharedBlobs);
+            send(out, Pack.BLOB, new ArrayList<>(blobs));
+            send(out, Pack.TREE, new ArrayList<>(trees));
+            send(out, Pack.COMMIT, commits);
+            out.writeByte(END);
+            out.flush();
+        }
+    }
+
+    /** Adds the root tree of COMMIT and the trees under it to TREES, and the
+     *  blobs of its files to BLOBS. */
+    private static void markFiles(Commit commit, Set<String> trees, Set<String> blobs) {
+        if (commit.storedTreeId() != null) {
+            Tree.mark(commit.storedTreeId(), trees, blobs);
+        } else {
+            blobs.addAll(commit.getAllfiles().values());
+        }
+    }
+
+    /** Sends the objects IDS, all of type TYPE, to OUT, reading each batch
+     *  of them in parallel. */
+    private static void send(DataOutputStream out, byte type, List<String> ids)
+            throws IOException {
+        for (int start = 0; start < ids.size(); start += BATCH) {
+            List<Outgoing> batch = ids.subList(start, Math.min(ids.size(), start + BATCH))
+                .parallelStream()
+                .map(id -> new Outgoing(type, id))
+                .collect(Collectors.toList());
+            try {
+                for (Outgoing object : batch) {
+                    object.writeTo(out);
+                }
+            } finally {
+                /** if the other side hung up, the rest still hold open blobs */
+                for (Outgoing object : batch) {
+                    object.close();
+                }
+            }
+        }
+    }
+
+    /** Reads the objects sent to IN by sendObjects, adds them to the pack
+     *  and adds their commits to GRAPH.  Blobs too large to hold in memory
+     *  go to the BlobStore instead. */
+    private static void receiveObjects(DataInputStream in, CommitGraph graph)
+            throws IOException {
+        try (Stats.Phase phase = Stats.phase("receive objects")) {
+            List<Commit> commits = new ArrayList<>();
+            byte[] raw = new byte[ID_BYTES];
+            byte[] buf = new byte[CHUNK_SIZE];
+            try (Pack.Appender pack = Pack.append()) {
+                for (byte type = in.readByte(); type != END; type = in.readByte()) {
+                    in.readFully(raw);
+                    String id = bytesToUid(raw, 0);
+                    byte[] bytes = new Incoming(id, in, type == Pack.BLOB, buf).bytes;
+                    if (bytes == null) {
+                        continue;
+                    }
+                    if (type == Pack.BLOB) {
+                        checkId(id, bytes);
+                        if (!BlobStore.contains(id)) {
+                            pack.add(Pack.BLOB, id, bytes);
+                        }
+                    } else if (type == Pack.TREE) {
+                        checkId(id, bytes);
+                        if (!join(Repository.TREES, id).exists()) {
+                            pack.add(Pack.TREE, id, bytes);
+                        }
+                    } else {
+                        Commit commit = Commit.decode(id, bytes);
+                        if (commit.storedTreeId() != null) {
+                            checkId(id, bytes);
+                        }
+                        if (!graph.contains(id)) {
+                            pack.add(Pack.COMMIT, id, bytes);
+                            commits.add(commit);
+                        }
+                    }
+                }
+                pack.finish();
+            }
+            /** another command may have received some of them meanwhile; holding
+             * the journal's lock keeps it from journaling them in between */
+            try (LockFile lock = LockFile.acquire(CommitJournal.LOCK)) {
+                commits.removeIf(commit -> !graph.add(commit.getId(), commit.getParent1(),
+                        commit.getParent2(), commit.getTimeStamp().getTime()));
+                CommitJournal.added(commits);
+            }
+        }
+    }
+
+    /** Checks that ID is the id of a tree or commit encoded as BYTES. */
+    private static void checkId(String id, byte[] bytes) {
+        if (!sha1(bytes).equals(id)) {
+            throw error("Remote sent a corrupt object %s.", id);
+        }
+    }
+
+    /** Returns a buffered stream of what the other side sends to IN. */
+    private static DataInputStream input(InputStream in) {
+        return new DataInputStream(new BufferedInputStream(in, CHUNK_SIZE));
+    }
+
+    /** Returns a buffered stream to the other side through OUT. */
+    private static DataOutputStream output(OutputStream out) {
+        return new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE));
+    }
+
+    /** An object being sent: its type, its id and its contents, as a
+     *  sequence of chunks each preceded by its length, with a zero length
+     *  after the last. */
+    private static class Outgoing {
+        private final byte type;
+        private final String id;
+        /** The contents, or their first IN_MEMORY_LIMIT bytes. */
+        private final byte[] head;
+        /** The rest of the contents of a large blob, or null. */
+        private final InputStream rest;
+
+        /** Reads the object ID of type TYPE, or the start of it if it is a
+         *  large blob. */
+        Outgoing(byte type, String id) {
+            this.type = type;
+            this.id = id;
+            if (type != Pack.BLOB) {
+                File dir = type == Pack.TREE ? Repository.TREES : Repository.COMMITS;
+                File loose = join(dir, id);
+                head = loose.exists() ? readContents(loose) : Pack.read(id);
+                rest = null;
+                if (head == null) {
+                    throw error("Missing object %s.", id);
+                }
+                return;
+            }
+            InputStream in = BlobStore.open(id);
+            try {
+                head = in.readNBytes(IN_MEMORY_LIMIT);
+                if (head.length < IN_MEMORY_LIMIT) {
+                    in.close();
+                    rest = null;
+                } else {
+                    rest = in;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Sends this object to OUT. */
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.write(uidToBytes(id));
+            for (int off = 0; off < head.length; off += CHUNK_SIZE) {
+                int len = Math.min(CHUNK_SIZE, head.length - off);
+                out.writeInt(len);
+                out.write(head, off, len);
+            }
+            if (rest != null) {
+                try (rest) {
+                    byte[] buf = new byte[CHUNK_SIZE];
+                    for (int n = rest.readNBytes(buf, 0, CHUNK_SIZE); n > 0;
+                            n = rest.readNBytes(buf, 0, CHUNK_SIZE)) {
+                        out.writeInt(n);
+                        out.write(buf, 0, n);
+                    }
+                }
+            }
+            out.writeInt(0);
+        }
+
+        /** Closes the rest of the contents, if they were not sent. */
+        void close() {
+            try {
+                if (rest != null) {
+                    rest.close();
+                }
+            } catch (IOException excp) {
+                /** nothing more is read from it */
+            }
+        }
+    }
+
+    /** An object being received. */
+    private static class Incoming {
+        private final String id;
+        /** The contents, or null if they were too large to keep in memory
+         *  and have been stored already. */
+        private final byte[] bytes;
+
+        /** Reads the contents of the object ID from IN, through BUF, which
+         *  holds CHUNK_SIZE bytes.  If ISBLOB and they are larger than
+         *  IN_MEMORY_LIMIT, they go through a temporary file straight into
+         *  the BlobStore. */
+        Incoming(String id, DataInputStream in, boolean isBlob, byte[] buf)
+                throws IOException {
+            this.id = id;
+            ByteArrayOutputStream memory = new ByteArrayOutputStream();
+            File spill = null;
+            OutputStream out = memory;
+            /** hashes a spilled blob as it arrives */
+            MessageDigest md = null;
+            try {
+                for (int len = in.readInt(); len > 0; len = in.readInt()) {
+                    if (len > CHUNK_SIZE) {
+                        throw error("Remote sent a corrupt object %s.", id);
+                    }
+                    in.readFully(buf, 0, len);
+                    if (isBlob && spill == null && memory.size() + len > IN_MEMORY_LIMIT) {
+                        spill = File.createTempFile("tmp", null, Repository.BLOBS);
+                        out = new BufferedOutputStream(new FileOutputStream(spill), CHUNK_SIZE);
+                        memory.writeTo(out);
+                        md = BlobStore.sha1Digest();
+                        md.update(memory.toByteArray());
+                    }
+                    if (md != null) {
+                        md.update(buf, 0, len);
+                    }
+                    out.write(buf, 0, len);
+                }
+                out.close();
+                if (spill == null) {
+                    bytes = memory.toByteArray();
+                } else {
+                    bytes = null;
+                    /** checked first, since put would store it under the id it really has */
+                    if (!bytesToUid(md.digest(), 0).equals(id)) {
+                        throw error("Remote sent a corrupt object %s.", id);
+                    }
+                    BlobStore.put(spill);
+                }
+            } finally {
+                if (spill != null) {
+                    spill.delete();
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,19 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.text.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
@@ -34,10 +45,41 @@ public class Repository {
 
     /** what Commit the Head/Active branch points to*/
     public static final File HEADBRANCH = join(GITLET_DIR, "head");
-    /** contains all the other branches that the user decides to create */
+    /** contains all the other branches that the user decides to create; only read
+     * to move them to REFS in repositories older than it */
     public static final File BRANCHES = join(GITLET_DIR, "branches");
+    /** one file per branch holding the id of its commit, see RepositorySession */
+    public static final File REFS = join(GITLET_DIR, "refs");
+    /** the files commands lock while they change the repository, see LockFile */
+    public static final File LOCKS = join(GITLET_DIR, "locks");
     /** this directory contains all the blobs */
     public static final File BLOBS = join(GITLET_DIR, "blobs");
+    /** this directory contains the chunks of large blobs, see BlobStore */
+    public static final File CHUNKS = join(GITLET_DIR, "chunks");
+    /** this directory contains the trees (directory listings) of commits, see Tree */
+    public static final File TREES = join(GITLET_DIR, "trees");
+    /** this directory contains the pack of objects moved out of COMMITS, TREES and BLOBS */
+    public static final File PACKS = join(GITLET_DIR, "packs");
+    /** stat data and blob ids of working files, see Index */
+    public static final File INDEX = join(GITLET_DIR, "index");
+    /** sorted ids of the commits, for looking them up by abbreviated id */
+    public static final File COMMIT_INDEX = join(GITLET_DIR, "commit-index");
+    /** parents, generation numbers and timestamps of every commit, see CommitGraph */
+    public static final File COMMIT_GRAPH = join(GITLET_DIR, "commit-graph");
+    /** the id, time, parents and message of every commit, in the order they were made,
+     * see CommitJournal */
+    public static final File COMMIT_JOURNAL = join(GITLET_DIR, "commit-journal");
+    /** trigrams of commit messages to the commits that contain them, see MessageIndex */
+    public static final File MESSAGE_INDEX = join(GITLET_DIR, "message-index");
+    /** names of remotes to the paths of their .gitlet directories */
+    public static final File REMOTES = join(GITLET_DIR, "remotes");
+
+    /** size of the buffer log entries are printed through */
+    private static final int LOG_BUFFER_SIZE = 1 << 16;
+    /** how log prints the time of a commit */
+    private static final DateTimeFormatter LOG_DATE =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z")
+                    .withZone(ZoneId.systemDefault());
 
     public static void initialCommit() {
         if (GITLET_DIR.exists()) {
@@ -48,70 +90,126 @@ public class Repository {
         GITLET_DIR.mkdir();
         COMMITS.mkdir();
         BLOBS.mkdir();
+        TREES.mkdir();
         Commit initialCommit = new Commit();
-        File initialCommitFile = join(COMMITS, sha1(serialize(initialCommit)));
-        writeObject(initialCommitFile, initialCommit);
-
-        TreeMap<String, String> stagingareaadd1 = new TreeMap<>();
-        writeObject(join(STAGING_AREA_ADD), stagingareaadd1);
-        TreeMap<String, String> stagingarearm1 = new TreeMap<>();
-        writeObject(join(STAGING_AREA_RM), stagingarearm1);
-        TreeMap<String, String> branchesTM = new TreeMap<>();
-        branchesTM.put("master", sha1(serialize(initialCommit)));
-        writeObject(BRANCHES, branchesTM);
-        writeObject(HEADBRANCH, "master");
+        initialCommit.save();
+        new CommitGraph().add(initialCommit.getId(), null, null,
+                initialCommit.getTimeStamp().getTime());
+        CommitJournal.added(initialCommit);
+
+        /** the branches, head and empty staging area are written when the
+         * session is flushed */
+        RepositorySession session = RepositorySession.get();
+        session.initialize();
+        session.setBranch("master", initialCommit.getId());
+        session.setHeadBranch("master");
     }
 
-    public static void addThisToStagingArea(String filename) {
-        if (!join(CWD, filename).exists()) {
+    /** stages the files named by PATTERNS, each of which is a file path, a
+     * directory (all files under it) or a glob such as "src/*.txt". the files that
+     * need hashing are hashed and stored in parallel, and the staging area is
+     * read and written once for all of them */
+    public static void addThisToStagingArea(String... patterns) {
+        List<String> filenames = expandFilenames(patterns);
+        if (filenames == null) {
             System.out.println("File does not exist.");
             return;
         }
-        /** takes the contents of the CWD file
-         * and puts it into a blob with BLOBS directory with name sha1(contents) */
-        File blobToAdd = join(CWD, filename);
-        File addedBlob = join(BLOBS, sha1(readContentsAsString(blobToAdd)));
-        writeContents(addedBlob, readContentsAsString(blobToAdd));
-
-        TreeMap<String, String> stagingareaadd = readObject(STAGING_AREA_ADD, TreeMap.class);
-        TreeMap<String, String> stagingarearm = readObject(STAGING_AREA_RM, TreeMap.class);
+        /** streams the contents of each CWD file into a blob in the BLOBS
+         * directory with name sha1(contents), unless the index shows that the
+         * file is unchanged since its blob was made */
+        RepositorySession session = RepositorySession.get();
+        Index index = session.index();
+        TreeMap<String, String> addedBlobids = new TreeMap<>();
+        List<String> toHash = new ArrayList<>();
+        for (String filename : filenames) {
+            String cached = index.cachedBlobIdOf(filename);
+            if (cached != null && BlobStore.contains(cached)) {
+                addedBlobids.put(filename, cached);
+            } else {
+                toHash.add(filename);
+            }
+        }
+        /** each file is statted before it is hashed, so that a change made
+         * while it is hashed is not recorded as matching the blob */
+        Map<String, Index.Entry> statted = new ConcurrentHashMap<>();
+        Map<String, String> hashed;
+        try (Stats.Phase phase = Stats.phase("hash files")) {
+            hashed = toHash.parallelStream().collect(Collectors.toMap(
+                    filename -> filename, filename -> {
+                        Index.Entry stat = Index.statOf(filename);
+                        if (stat != null) {
+                            statted.put(filename, stat);
+                        }
+                        return BlobStore.put(join(CWD, filename));
+                    }));
+        }
+        for (String filename : hashed.keySet()) {
+            index.record(filename, hashed.get(filename), statted.get(filename));
+        }
+        addedBlobids.putAll(hashed);
+
+        TreeMap<String, String> stagingareaadd = session.stagedForAddition();
+        TreeMap<String, String> stagingarearm = session.stagedForRemoval();
         /** get the currentCommit that the headbranch is pointing to */
-        String activeBranchName = readObject(HEADBRANCH, String.class);
-        String sha1currentCommit = (String)
-                readObject(BRANCHES, TreeMap.class).get(activeBranchName);
-        Commit currentCommit = readObject(join(COMMITS, sha1currentCommit), Commit.class);
+        Commit currentCommit = session.headCommit();
 
         /** if (the added file has the same contents as committed file, don't add to staging) */
-        if (currentCommit.getAllfiles() != null) { //commit isn't empty
+        for (String filename : addedBlobids.keySet()) {
+            String addedBlobid = addedBlobids.get(filename);
             /** first checks if the commit has the file,
              * if it does, checks if it has the same contents via SHA-1 */
-            String contents = currentCommit.getAllfiles().get(filename);
-            if (contents != null
-                    && sha1(readContentsAsString(blobToAdd)).equals(contents)) {
+            String contents = currentCommit.getBlobId(filename);
+            if (contents != null && addedBlobid.equals(contents)) {
                 stagingareaadd.remove(filename);
                 stagingarearm.remove(filename);
             } else {
-                stagingareaadd.put(filename, sha1(readContentsAsString(blobToAdd)));
+                stagingareaadd.put(filename, addedBlobid);
             }
         }
-        writeObject(STAGING_AREA_ADD, stagingareaadd);
-        writeObject(STAGING_AREA_RM, stagingarearm);
+    }
+
+    /** returns the paths of the working files that PATTERNS stand for, in order
+     * and without repeats, or null if one of them names no file */
+    private static List<String> expandFilenames(String... patterns) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        List<String> allFiles = null;
+        for (String pattern : patterns) {
+            File file = join(CWD, pattern);
+            if (file.isFile()) {
+                result.add(WorkingTree.normalize(pattern));
+            } else if (file.isDirectory()) {
+                result.addAll(WorkingTree.files(file));
+            } else if (pattern.matches(".*[*?\\[{].*")) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                if (allFiles == null) {
+                    allFiles = WorkingTree.files();
+                }
+                for (String filename : allFiles) {
+                    if (matcher.matches(Paths.get(filename))) {
+                        result.add(filename);
+                    }
+                }
+            } else {
+                return null;
+            }
+        }
+        return new ArrayList<>(result);
     }
 
     public static void addToRemovalArea(String filename) {
+        filename = WorkingTree.normalize(filename);
         File blobToRemove = join(CWD, filename);
-        TreeMap<String, String> stagingareaadd = readObject(STAGING_AREA_ADD, TreeMap.class);
-        TreeMap<String, String> stagingarearm = readObject(STAGING_AREA_RM, TreeMap.class);
+        RepositorySession session = RepositorySession.get();
+        TreeMap<String, String> stagingareaadd = session.stagedForAddition();
+        TreeMap<String, String> stagingarearm = session.stagedForRemoval();
         /** get the currentCommit that the headbranch is pointing to */
-        String activeBranchName = readObject(HEADBRANCH, String.class);
-        String sha1currentCommit = (String)
-                readObject(BRANCHES, TreeMap.class).get(activeBranchName);
-        Commit currentCommit = readObject(join(COMMITS, sha1currentCommit), Commit.class);
+        Commit currentCommit = session.headCommit();
+        boolean tracked = currentCommit.getBlobId(filename) != null;
 
         if (currentCommit.getAllfiles() != null) {  //commit isn't empty
             /** checks if the file isn't in the commit + not staged, and fails */
-            if (!currentCommit.getAllfiles().containsKey(filename)
-                    && !stagingareaadd.containsKey(filename)) {
+            if (!tracked && !stagingareaadd.containsKey(filename)) {
                 System.out.println("No reason to remove the file.");
             }
             /** unstage if staged, stage for removal if tracked in the current commit */
@@ -120,95 +218,153 @@ public class Repository {
             }
             /** if the file is tracked in the current commit,
              * stage it for removal and remove from CWD if user as not done so */
-            if (currentCommit.getAllfiles().containsKey(filename)) {
+            if (tracked) {
                 stagingarearm.put(filename, "YEET");
                 /** remove file from working directory if the user has not already done so */
-                blobToRemove.delete();
+                WorkingTree.remove(blobToRemove);
+                session.index().forget(filename);
             }
         }
-        writeObject(STAGING_AREA_ADD, stagingareaadd);
-        writeObject(STAGING_AREA_RM, stagingarearm);
     }
 
     public static void commitThis(String msg) {
-        TreeMap<String, String> stagingareaadd = readObject(STAGING_AREA_ADD, TreeMap.class);
-        TreeMap<String, String> stagingarearm = readObject(STAGING_AREA_RM, TreeMap.class);
+        commitThis(msg, null);
+    }
+
+    /** commits the staging area with message MSG, recording SECONDPARENT as the
+     * second parent of the new commit if it is not null (merge commits) */
+    private static void commitThis(String msg, String secondParent) {
+        RepositorySession session = RepositorySession.get();
+        TreeMap<String, String> stagingareaadd = session.stagedForAddition();
+        TreeMap<String, String> stagingarearm = session.stagedForRemoval();
         if (stagingareaadd.size() == 0 && stagingarearm.size() == 0) {
             System.out.println("No changes added to the commit.");
             return;
         }
+        /** files staged for addition map to their new blobs, files staged for
+         * removal to null */
+        TreeMap<String, String> changes = new TreeMap<>(stagingareaadd);
+        for (String fileName : stagingarearm.keySet()) {
+            changes.put(fileName, null);
+        }
         /** creates the new commit and writes it to an File inside .gitlet directory */
-        Commit newCommit = new Commit(msg);
-        File newCommitFile = join(COMMITS, sha1(serialize(newCommit)));
-        writeObject(newCommitFile, newCommit);
+        Commit newCommit;
+        try (Stats.Phase phase = Stats.phase("write commit")) {
+            newCommit = new Commit(msg, session.headCommit(), secondParent, changes);
+            newCommit.save();
+            CommitStore.put(newCommit);
+            /** journaled first, so that a process catching the journal up with the
+             * graph never sees this commit in one and not the other */
+            CommitJournal.added(newCommit);
+            CommitGraph.load().add(newCommit.getId(), newCommit.getParent1(),
+                    newCommit.getParent2(), newCommit.getTimeStamp().getTime());
+        }
+        String newCommitid = newCommit.getId();
 
         /** sets whatever branch headbranch is pointing to to point to the new commit */
-        String currentActiveBranchName = readObject(Repository.HEADBRANCH, String.class);
-        TreeMap<String, String> branchesTM = readObject(Repository.BRANCHES, TreeMap.class);
-        branchesTM.put(currentActiveBranchName, sha1(serialize(newCommit)));
-        writeObject(Repository.BRANCHES, branchesTM);
+        session.setBranch(session.headBranch(), newCommitid);
+        session.clearStaging();
         /** the head is still the name of the branch which points to this new commit */
     }
 
-    public static void getLog() {
-        String activeBranchName = readObject(HEADBRANCH, String.class);
-        String sha1currentCommit =
-                (String) readObject(BRANCHES, TreeMap.class).get(activeBranchName);
-        Commit pointer = readObject(join(COMMITS, sha1currentCommit), Commit.class);
-        while (true) {
-            System.out.println("===");
-            System.out.println("commit " + sha1(serialize(pointer)));
-            if (pointer.getParent2() != null) {
-                System.out.println("Merge: " + pointer.getParent1().substring(0, 7)
-                        + " " + pointer.getParent2().substring(0, 7));
-            }
-            SimpleDateFormat ft = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
-            System.out.println("Date: " + ft.format(pointer.getTimeStamp()));
-            System.out.println(pointer.getMessage());
-            System.out.println();
-            if (pointer.getMessage().equals("initial commit")) {
-                break;
+    /** prints the commits FILTER selects from the head commit and its first
+     * parents, newest first */
+    public static void getLog(LogFilter filter) {
+        try (Stats.Phase phase = Stats.phase("walk history")) {
+            CommitGraph graph = CommitGraph.load();
+            String head = RepositorySession.get().headCommitId();
+            Iterator<String> ids = filter.select(graph.firstParents(head).iterator(),
+                    graph::timestamp);
+            PrintWriter out = logWriter();
+            for (Commit commit : CommitStore.walk(ids)) {
+                printLogEntry(out, commit.getId(), commit.getParent1(), commit.getParent2(),
+                        commit.getTimeStamp().getTime(), commit.getMessage());
             }
-            pointer = readObject(join(COMMITS, pointer.getParent1()), Commit.class);
+            out.flush();
         }
     }
 
-    public static void getGlobalLog() {
-        for (String commitName : plainFilenamesIn(COMMITS)) {
-            Commit current = readObject(join(COMMITS, commitName), Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + sha1(serialize(current)));
-            if (current.getParent2() != null) {
-                System.out.println("Merge: " + current.getParent1().substring(0, 7)
-                        + " " + current.getParent2().substring(0, 7));
+    /** prints the commits FILTER selects from every commit there is, newest
+     * first. Everything printed comes from one sequential pass over the commit
+     * journal; no commit is read */
+    public static void getGlobalLog(LogFilter filter) {
+        try (Stats.Phase phase = Stats.phase("walk history")) {
+            ByteBuffer journal = CommitJournal.load();
+            List<Integer> records = new ArrayList<>();
+            for (int offset = 0; CommitJournal.hasRecord(journal, offset);
+                 offset = CommitJournal.next(journal, offset)) {
+                records.add(offset);
             }
-            SimpleDateFormat ft = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
-            System.out.println("Date: " + ft.format(current.getTimeStamp()));
-            System.out.println(current.getMessage());
-            System.out.println();
+            /** the journal is in the order commits were made, so reversing it
+             * first keeps the newest of commits with the same time first */
+            Collections.reverse(records);
+            records.sort(Comparator.comparingLong(
+                    (Integer offset) -> CommitJournal.timeAt(journal, offset)).reversed());
+            Iterator<Integer> selected = filter.select(records.iterator(),
+                    offset -> CommitJournal.timeAt(journal, offset));
+            PrintWriter out = logWriter();
+            while (selected.hasNext()) {
+                int offset = selected.next();
+                printLogEntry(out, CommitJournal.idAt(journal, offset),
+                        CommitJournal.parentAt(journal, offset, 1),
+                        CommitJournal.parentAt(journal, offset, 2),
+                        CommitJournal.timeAt(journal, offset),
+                        CommitJournal.messageAt(journal, offset));
+            }
+            out.flush();
         }
     }
 
-    public static void findCommit(String msg) {
-        int numCommitsFound = 0;
-        for (String commitName : plainFilenamesIn(COMMITS)) {
-            Commit current = readObject(join(COMMITS, commitName), Commit.class);
-            if (current.getMessage().equals(msg)) {
-                System.out.println(sha1(serialize(current)));
-                numCommitsFound++;
-            }
+    /** returns the writer log entries are printed through, one large buffer
+     * over System.out */
+    private static PrintWriter logWriter() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), LOG_BUFFER_SIZE));
+    }
+
+    /** prints to OUT the log entry of the commit ID with parents PARENT1 and
+     * PARENT2, made at TIME with message MESSAGE */
+    private static void printLogEntry(PrintWriter out, String id, String parent1,
+                                      String parent2, long time, String message) {
+        out.println("===");
+        out.println("commit " + id);
+        if (parent2 != null) {
+            out.println("Merge: " + parent1.substring(0, 7) + " " + parent2.substring(0, 7));
+        }
+        out.println("Date: " + LOG_DATE.format(Instant.ofEpochMilli(time)));
+        out.println(message);
+        out.println();
+    }
+
+    /** prints the ids of the commits whose message is MSG; with MODE
+     * "--substring", whose message contains MSG, and with MODE "--word",
+     * whose message has the word MSG in any case. No commit is read */
+    public static void findCommit(String mode, String msg) {
+        List<String> found;
+        if (mode == null) {
+            found = MessageIndex.findExact(msg);
+        } else if (mode.equals("--substring")) {
+            found = MessageIndex.findSubstring(msg);
+        } else if (mode.equals("--word")) {
+            found = MessageIndex.findWord(msg);
+        } else {
+            System.out.println("Incorrect Operands");
+            return;
+        }
+        for (String id : found) {
+            System.out.println(id);
         }
-        if (numCommitsFound == 0) {
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message");
         }
     }
 
     public static void getStatus() {
         System.out.println("=== Branches ===");
-        String activeBranch = readObject(HEADBRANCH, String.class);
+        RepositorySession session = RepositorySession.get();
+        String activeBranch = session.headBranch();
         System.out.println("*" + activeBranch);
-        TreeMap<String, String> branchesTM =  readObject(BRANCHES, TreeMap.class);
-        for (String branchName : branchesTM.keySet()) {
+        for (String branchName : session.branches().keySet()) {
             if (!branchName.equals(activeBranch)) {
                 System.out.println(branchName);
             }
@@ -216,131 +372,145 @@ public class Repository {
         System.out.println();
 
         System.out.println("=== Staged Files ===");
-        TreeMap<String, String> stagingareaaddTm = readObject(STAGING_AREA_ADD, TreeMap.class);
+        TreeMap<String, String> stagingareaaddTm = session.stagedForAddition();
         for (String fileName : stagingareaaddTm.keySet()) {
             System.out.println(fileName);
         }
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        TreeMap<String, String> stagingarearmTM = readObject(STAGING_AREA_RM, TreeMap.class);
+        TreeMap<String, String> stagingarearmTM = session.stagedForRemoval();
         for (String fileName : stagingarearmTM.keySet()) {
             System.out.println(fileName);
         }
         System.out.println();
 
+        /** the working files are compared by blob id through the index,
+         * so only files whose stat data changed are read */
+        TreeMap<String, String> trackedFiles = session.headCommit().getAllfiles();
+        TreeSet<String> cwdFiles = new TreeSet<>(WorkingTree.files());
+        Index index = session.index();
+        TreeMap<String, String> modifications = new TreeMap<>();
+        for (String fileName : trackedFiles.keySet()) {
+            if (stagingareaaddTm.containsKey(fileName)) {
+                continue;
+            }
+            if (!join(CWD, fileName).isFile()) {
+                if (!stagingarearmTM.containsKey(fileName)) {
+                    modifications.put(fileName, "deleted");
+                }
+            } else if (!stagingarearmTM.containsKey(fileName)
+                    && !trackedFiles.get(fileName).equals(index.blobIdOf(fileName))) {
+                modifications.put(fileName, "modified");
+            }
+        }
+        for (String fileName : stagingareaaddTm.keySet()) {
+            if (!join(CWD, fileName).isFile()) {
+                modifications.put(fileName, "deleted");
+            } else if (!stagingareaaddTm.get(fileName).equals(index.blobIdOf(fileName))) {
+                modifications.put(fileName, "modified");
+            }
+        }
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String fileName : modifications.keySet()) {
+            System.out.println(fileName + " (" + modifications.get(fileName) + ")");
+        }
         System.out.println();
+
         System.out.println("=== Untracked Files ===");
+        for (String fileName : cwdFiles) {
+            if (!stagingareaaddTm.containsKey(fileName)
+                    && (!trackedFiles.containsKey(fileName)
+                    || stagingarearmTM.containsKey(fileName))) {
+                System.out.println(fileName);
+            }
+        }
         System.out.println();
     }
 
 
     public static void checkout1(String filename) {
+        filename = WorkingTree.normalize(filename);
         File cwdFile = join(CWD, filename);
-        String activeBranchName = readObject(HEADBRANCH, String.class);
-        String sha1currentCommit =
-                (String) readObject(BRANCHES, TreeMap.class).get(activeBranchName);
-        Commit currentCommit = readObject(join(COMMITS, sha1currentCommit), Commit.class);
-        if (currentCommit.getAllfiles().get(filename) == null) {
+        Commit currentCommit = RepositorySession.get().headCommit();
+        String blobName = currentCommit.getBlobId(filename);
+        if (blobName == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        String blobName = currentCommit.getAllfiles().get(filename);
-        writeContents(cwdFile, readContentsAsString(join(BLOBS, blobName)));
+        WorkingTree.prepare(cwdFile);
+        BlobStore.copyTo(blobName, cwdFile);
+        RepositorySession.get().index().record(filename, blobName);
     }
 
     public static void checkout2(String commitID, String filename) {
         commitID = uidHelper(commitID);
+        if (commitID == null) {
+            return;
+        }
+        filename = WorkingTree.normalize(filename);
         File cwdFile = join(CWD, filename);
-        boolean derp = !(plainFilenamesIn(COMMITS).contains(commitID));
+        boolean derp = !Commit.exists(commitID);
         if (derp) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit wantedCommit = readObject(join(COMMITS, commitID), Commit.class);
-        if (wantedCommit.getAllfiles().get(filename) == null) {
+        Commit wantedCommit = CommitStore.get(commitID);
+        String blobName = wantedCommit.getBlobId(filename);
+        if (blobName == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        String blobName = wantedCommit.getAllfiles().get(filename);
-        //File checkoutBlob = readObject(join(BLOBS, blobName), File.class);
-        writeContents(cwdFile, readContentsAsString(join(BLOBS, blobName)));
+        WorkingTree.prepare(cwdFile);
+        BlobStore.copyTo(blobName, cwdFile);
+        RepositorySession.get().index().record(filename, blobName);
     }
 
     public static void checkout3(String branchName) {
-        String sha1wantedCommit = (String) readObject(BRANCHES, TreeMap.class).get(branchName);
+        RepositorySession session = RepositorySession.get();
+        String sha1wantedCommit = session.branch(branchName);
         if (sha1wantedCommit == null) {
             System.out.println("No such branch exists");
             return;
         }
-        Commit checkedOutCommit = readObject(join(COMMITS, sha1wantedCommit), Commit.class);
-        String headB = readObject(HEADBRANCH, String.class);
-        TreeMap<String, String> branchesTM = readObject(BRANCHES, TreeMap.class);
-        String currentCommitid = branchesTM.get(headB);
-        Commit currentCommit = readObject(join(COMMITS, currentCommitid), Commit.class);
-        TreeMap<String, String> stagingareaaddTm = readObject(STAGING_AREA_ADD, TreeMap.class);
+        Commit checkedOutCommit = CommitStore.get(sha1wantedCommit);
+        String headB = session.headBranch();
+        Commit currentCommit = session.headCommit();
+        TreeMap<String, String> stagingareaaddTm = session.stagedForAddition();
+        Map<String, Tree.Change> changes = Checkout.changes(currentCommit, checkedOutCommit);
         /** Checks if a file is untracked in the current branch
          * and would be overridden by the checkout */
-        for (String cwdfileName : plainFilenamesIn(CWD)) {
-            if (currentCommit.getAllfiles().get(cwdfileName) == null
-                    && stagingareaaddTm.get(cwdfileName) == null
-                    && checkedOutCommit.getAllfiles().containsKey(cwdfileName)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                return;
-            }
+        if (Checkout.untrackedFileInTheWay(changes, stagingareaaddTm)) {
+            System.out.println("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
+            return;
         }
-        if (branchName.equals(readObject(HEADBRANCH, String.class))) {
+        if (branchName.equals(headB)) {
             System.out.println("No need to check out the current branch");
             return;
         }
-        /** Takes all files in the checkedOutCommit and puts them in the CWD */
-        for (String fileName : checkedOutCommit.getAllfiles().keySet()) {
-            String blobName = checkedOutCommit.getAllfiles().get(fileName);
-            File blobToAddToCWD = join(BLOBS, blobName);
-            File fileFromCheckedOutCommit = join(CWD, fileName);
-            writeContents(fileFromCheckedOutCommit, readContents(blobToAddToCWD));
-        }
-        /** Removes all files from the CWD tracked in the currentCommit
-         * but not present in the checked out Commit */
-        for (String cwdfileName : plainFilenamesIn(CWD)) {
-            if (!checkedOutCommit.getAllfiles().containsKey(cwdfileName)
-                    && currentCommit.getAllfiles().containsKey(cwdfileName)) {
-                File toBeDeleted = join(CWD, cwdfileName);
-                toBeDeleted.delete();
-            }
-        }
+        session.lockHead();
+        /** Writes only the files that differ between the two commits and
+         * removes the files tracked only in the currentCommit */
+        Checkout.switchFiles(changes);
         /** given branch is now what the head points to */
-        writeObject(HEADBRANCH, branchName);
-
-        /** clears and the add and remove staging areas and saves them */
-        TreeMap<String, String> stagingareaaddTreemap =
-                readObject(Repository.STAGING_AREA_ADD, TreeMap.class);
-        TreeMap<String, String> stagingarearmTreemap =
-                readObject(Repository.STAGING_AREA_RM, TreeMap.class);
-        stagingareaaddTreemap.clear();
-        stagingarearmTreemap.clear();
-        writeObject(Repository.STAGING_AREA_ADD, stagingareaaddTreemap);
-        writeObject(Repository.STAGING_AREA_RM, stagingarearmTreemap);
+        session.setHeadBranch(branchName);
+        session.clearStaging();
     }
 
     public static void createBranch(String branchName) {
-        TreeMap<String, String> branchesTM = readObject(BRANCHES, TreeMap.class);
-        if (branchesTM.containsKey(branchName)) {
+        RepositorySession session = RepositorySession.get();
+        if (session.branch(branchName) != null) {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        String headB = readObject(HEADBRANCH, String.class);
-        String sha1currentCommit = branchesTM.get(headB);
-        branchesTM.put(branchName, sha1currentCommit);
-        writeObject(BRANCHES, branchesTM);
+        session.setBranch(branchName, session.headCommitId());
     }
 
     public static void deleteBranch(String branchName) {
-        TreeMap<String, String> branchesTM = readObject(BRANCHES, TreeMap.class);
-        String headB = readObject(HEADBRANCH, String.class);
-        if (!branchesTM.containsKey(branchName)) {
+        RepositorySession session = RepositorySession.get();
+        String headB = session.headBranch();
+        if (session.branch(branchName) == null) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -348,40 +518,46 @@ public class Repository {
             System.out.println("Cannot remove the current branch.");
             return;
         }
-        branchesTM.remove(branchName);
-        writeObject(BRANCHES, branchesTM);
+        session.removeBranch(branchName);
     }
 
     public static void reset(String commitID) {
         commitID = uidHelper(commitID);
-        boolean derp = !(plainFilenamesIn(COMMITS).contains(commitID));
+        if (commitID == null) {
+            return;
+        }
+        boolean derp = !Commit.exists(commitID);
         if (derp) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        /** create a temporary branch that points to commitID */
-        TreeMap<String, String> branchesTM = readObject(BRANCHES, TreeMap.class);
-        branchesTM.put("temporaryBranch", commitID);
-        String currentBranch = readObject(HEADBRANCH, String.class);
-        writeObject(BRANCHES, branchesTM);
-        checkout3("temporaryBranch");
-
-        /** delete 'temporaryBranch' and set the 'current' branch to this commit,
-         * the head also marks the 'current' branch */
-        branchesTM.put(currentBranch, commitID);
-        writeObject(HEADBRANCH, currentBranch);
-        branchesTM.remove("temporaryBranch");
-        writeObject(BRANCHES, branchesTM);
+        RepositorySession session = RepositorySession.get();
+        Commit currentCommit = session.headCommit();
+        Commit wantedCommit = CommitStore.get(commitID);
+        TreeMap<String, String> stagingareaaddTm = session.stagedForAddition();
+        Map<String, Tree.Change> changes = Checkout.changes(currentCommit, wantedCommit);
+        if (Checkout.untrackedFileInTheWay(changes, stagingareaaddTm)) {
+            System.out.println("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
+            return;
+        }
+        /** unlike checkout, reset also puts back the files changed since */
+        Checkout.addWorkingChanges(changes, wantedCommit);
+        session.lockHead();
+        Checkout.switchFiles(changes);
+        /** the current branch now points to this commit */
+        session.setBranch(session.headBranch(), commitID);
+        session.clearStaging();
     }
 
     public static void merge(String otherBranch) {
-        String headB = readObject(HEADBRANCH, String.class);
-        TreeMap<String, String> branchesTreemap = readObject(BRANCHES, TreeMap.class);
-        Commit currentCommit = readObject(join(COMMITS, branchesTreemap.get(headB)), Commit.class);
-        TreeMap<String, String> stagedareaaddTreemap = readObject(STAGING_AREA_ADD, TreeMap.class);
-        TreeMap<String, String> stagedaarearmTreemap = readObject(STAGING_AREA_RM, TreeMap.class);
-        for (String cwdfileName : plainFilenamesIn(CWD)) {
-            if (currentCommit.getAllfiles().get(cwdfileName) == null
+        RepositorySession session = RepositorySession.get();
+        String headB = session.headBranch();
+        Commit currentCommit = session.headCommit();
+        TreeMap<String, String> stagedareaaddTreemap = session.stagedForAddition();
+        TreeMap<String, String> stagedaarearmTreemap = session.stagedForRemoval();
+        for (String cwdfileName : WorkingTree.files()) {
+            if (currentCommit.getBlobId(cwdfileName) == null
                     && stagedareaaddTreemap.get(cwdfileName) == null) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
@@ -392,7 +568,7 @@ public class Repository {
             System.out.println("You have uncommitted changes.");
             return;
         }
-        if (branchesTreemap.get(otherBranch) == null) {
+        if (session.branch(otherBranch) == null) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -400,150 +576,161 @@ public class Repository {
             System.out.println("Cannot merge a branch with itself.");
             return;
         }
-        Queue<String> fringe = new LinkedList<>();
-        Queue<String> storage = new LinkedList<>();
-
-        fringe.add(sha1(serialize(currentCommit)));
-        storage.add(sha1(serialize(currentCommit)));
-        String splitPointid = null;
-        /** This is the first BFS search on the current commit which head marks */
-        while (fringe.size() != 0) {
-            String commitVid = fringe.remove();
-            Commit commitV = readObject(join(COMMITS, commitVid), Commit.class);
-            if (commitV.getParent1() != null) {
-                fringe.add(commitV.getParent1());
-                storage.add(commitV.getParent1());
-            }
-            if (commitV.getParent2() != null) {
-                fringe.add(commitV.getParent2());
-                storage.add(commitV.getParent2());
-            }
+        String commitidCurrent = session.headCommitId();
+        String commitidOther = session.branch(otherBranch);
+        Commit otherCommit = CommitStore.get(commitidOther);
+        /** the split point comes from the commit graph, no Commit files are opened */
+        String splitPointid;
+        try (Stats.Phase phase = Stats.phase("split point")) {
+            splitPointid = CommitGraph.load().splitPoint(commitidCurrent, commitidOther);
         }
-        String commitidOther = branchesTreemap.get(otherBranch);
-        Commit otherCommit = readObject(join(COMMITS, commitidOther), Commit.class);
-        fringe.add(commitidOther);
-        while (fringe.size() != 0) {
-            String commitVid = fringe.remove();
-            if (storage.contains(commitVid)) {
-                splitPointid = commitVid;
-                break;
-            }
-            Commit commitV = readObject(join(COMMITS, commitVid), Commit.class);
-            if (commitV.getParent1() != null) {
-                fringe.add(commitV.getParent1());
-            }
-            if (commitV.getParent2() != null) {
-                fringe.add(commitV.getParent2());
-            }
+        if (splitPointid == null) {
+            System.out.println("Given branch shares no history with the current branch.");
+            return;
         }
-        Commit splitPoint = readObject(join(COMMITS, splitPointid), Commit.class);
-        if (otherCommit.getSha1().equals(splitPoint.getSha1())) {
-            System.out.println("Given branch is an ancestor of the current branch");
+        if (splitPointid.equals(commitidOther)) {
+            System.out.println("Given branch is an ancestor of the current branch.");
             return;
         }
-        if (currentCommit.getSha1().equals(splitPoint.getSha1())) {
+        if (splitPointid.equals(commitidCurrent)) {
             Repository.checkout3(otherBranch);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        boolean encounteredMerge = false;
-        for (String fileName : splitPoint.getAllfiles().keySet()) {
-            String sha1split = splitPoint.getAllfiles().get(fileName);
-            String sha1other = otherCommit.getAllfiles().get(fileName);
-            String sha1current = currentCommit.getAllfiles().get(fileName);
-            /** CASE 1 */
-            if (!totalCompare(sha1other, sha1split) && totalCompare(sha1current, sha1split)) {
-                /** CASE 6 */
-                if (totalCompare(sha1current, sha1split) && sha1other == null) {
-                    Repository.addToRemovalArea(fileName);
-                    continue;
+        /** the merged files are written into the CWD before the merge commit */
+        session.lockHead();
+        Commit splitPoint = CommitStore.get(splitPointid);
+        /** Only files the given branch changed since the split point can need
+         * anything, and the trees it shares with the split point are skipped.
+         * CASE 2, 4 and 7: files changed only in current stay as they are.
+         * Every decision is made in memory first, so the staging area is
+         * written once however many files the merge touches */
+        Map<String, Tree.Change> otherChanges;
+        try (Stats.Phase phase = Stats.phase("diff trees")) {
+            otherChanges = Tree.diff(splitPoint.getTreeId(), otherCommit.getTreeId());
+        }
+        TreeMap<String, String> toStage = new TreeMap<>();
+        TreeMap<String, String> toRemove = new TreeMap<>();
+        Map<String, String> toMerge = new HashMap<>();
+        for (Map.Entry<String, Tree.Change> change : otherChanges.entrySet()) {
+            String fileName = change.getKey();
+            String sha1split = change.getValue().before;
+            String sha1other = change.getValue().after;
+            String sha1current = currentCommit.getBlobId(fileName);
+            if (sha1split == null) {
+                /** CASE 5: Files not in split and only present in given should be
+                 * checked out and staged */
+                if (sha1current == null) {
+                    toStage.put(fileName, sha1other);
                 }
-                stagedareaaddTreemap.put(fileName, otherCommit.getAllfiles().get(fileName));
-                writeObject(STAGING_AREA_ADD, stagedareaaddTreemap);
-            } else if (!totalCompare(sha1current, sha1split)
-                    && totalCompare(sha1split, sha1other)) {   /** CASE 2: don't do anything */
-                /** CASE 7 */
-                if (totalCompare(sha1other, sha1split) && sha1current == null) {
-                    continue;
-                }
-            } else if (!totalCompare(sha1current, sha1split)
-                    && !totalCompare(sha1other, sha1split)) {  /** CASE 3 */
-                if (totalCompare(sha1current, sha1other)) {
-                    continue;
-                } else {    /** CASE 8 or 3B*/
-                    encounteredMerge = true;
-                    String currContents = readContentsAsString(join(BLOBS, sha1current));
-                    String otherContents = "";
-                    if (sha1other != null) {
-                        otherContents = readContentsAsString(join(BLOBS, sha1other));
-                    }
-                    writeContents(join(CWD, fileName), "<<<<<<< HEAD\n"
-                            + currContents + "=======\n" + otherContents + ">>>>>>>\n");
-                    Repository.addThisToStagingArea(fileName);
+            } else if (totalCompare(sha1current, sha1split)) {  /** CASE 1 */
+                /** CASE 6 */
+                if (sha1other == null) {
+                    toRemove.put(fileName, "YEET");
+                } else {
+                    toStage.put(fileName, sha1other);
                 }
+            } else if (!totalCompare(sha1current, sha1other)) {  /** CASE 3B and 8 */
+                toMerge.put(fileName, sha1current);
             }
-
         }
-        /** CASE 4: Files not in split and only present in current should stay as they are
-         for (String fileName : currentCommit.allfiles.keySet()) {
-         String sha1split = splitPoint.allfiles.get(fileName);
-         String sha1other = otherCommit.allfiles.get(fileName);
-         if (sha1split == null && sha1other == null) {
-
-         }
-         }*/
-        /** CASE 5: Files not in split and only present in given should be checked out and staged */
-        for (String fileName : otherCommit.getAllfiles().keySet()) {
-            String sha1split = splitPoint.getAllfiles().get(fileName);
-            String sha1current = currentCommit.getAllfiles().get(fileName);
-            if (sha1split == null && sha1current == null) {
-                Repository.checkout2(commitidOther, fileName);
-                Repository.addThisToStagingArea(fileName);
+        /** merges the files both sides changed line by line, in parallel; only
+         * lines both changed differently are left between conflict markers */
+        Set<String> conflicted = ConcurrentHashMap.newKeySet();
+        Map<String, String> merged;
+        try (Stats.Phase phase = Stats.phase("merge files")) {
+            merged = toMerge.keySet().parallelStream().collect(
+                    Collectors.toMap(fileName -> fileName, fileName -> {
+                        File file = join(CWD, fileName);
+                        Tree.Change change = otherChanges.get(fileName);
+                        if (LineMerge.merge(change.before, toMerge.get(fileName),
+                                change.after, file)) {
+                            conflicted.add(fileName);
+                        }
+                        return BlobStore.put(file);
+                    }));
+        }
+        for (Map.Entry<String, String> file : merged.entrySet()) {
+            if (!file.getValue().equals(toMerge.get(file.getKey()))) {
+                toStage.put(file.getKey(), file.getValue());
             }
         }
-        if (encounteredMerge) {
+        if (!conflicted.isEmpty()) {
             System.out.println("Encountered a merge conflict.");
         }
-        Repository.commitThis("Merged " + otherBranch + " into " + headB + ".");
-        String newHead = readObject(HEADBRANCH, String.class);
-        TreeMap<String, String> newBranches = readObject(BRANCHES, TreeMap.class);
-        String resultId = newBranches.get(newHead);
-        Commit result = readObject(join(COMMITS, resultId), Commit.class);
-        result.setParent2(newBranches.get(otherBranch));
-
-        /** Takes all files in the checkedOutCommit and puts them in the CWD */
-        for (String fileName : result.getAllfiles().keySet()) {
-            String blobName = result.getAllfiles().get(fileName);
-            File blobToAddToCWD = join(BLOBS, blobName);
-            File fileFromCheckedOutCommit = join(CWD, fileName);
-            writeContents(fileFromCheckedOutCommit, readContents(blobToAddToCWD));
-        }
-        /** Removes all files from the CWD tracked in the currentCommit
-         * but not present in the checked out Commit */
-        for (String cwdfileName : plainFilenamesIn(CWD)) {
-            if (!result.getAllfiles().containsKey(cwdfileName)
-                    && currentCommit.getAllfiles().containsKey(cwdfileName)) {
-                File toBeDeleted = join(CWD, cwdfileName);
-                toBeDeleted.delete();
-            }
+        stagedareaaddTreemap.putAll(toStage);
+        stagedaarearmTreemap.putAll(toRemove);
+        Repository.commitThis("Merged " + otherBranch + " into " + headB + ".", commitidOther);
+        Commit result = session.headCommit();
+
+        /** Brings the CWD from the currentCommit to the merged result in one
+         * pass; the merged files are already in place */
+        Map<String, Tree.Change> changes = new TreeMap<>(Checkout.changes(currentCommit, result));
+        changes.keySet().removeAll(merged.keySet());
+        Checkout.switchFiles(changes);
+        for (Map.Entry<String, String> file : merged.entrySet()) {
+            session.index().record(file.getKey(), file.getValue());
         }
     }
 
-    private static String uidHelper(String shortIdcommit) {
-        String answer = "";
-        for (String icommitId : plainFilenamesIn(COMMITS)) {
-            if (icommitId.startsWith(shortIdcommit)) {
-                answer = icommitId;
-            }
+    public static void repack() {
+        Pack.repack();
+    }
+
+    /** saves the remote .gitlet directory PATH under the name NAME */
+    public static void addRemote(String name, String path) {
+        TreeMap<String, String> remotes = RepositorySession.get().remotes();
+        if (remotes.containsKey(name)) {
+            System.out.println("A remote with that name already exists.");
+            return;
         }
-        if (answer.equals("")) {
-            return shortIdcommit;
+        remotes.put(name, path);
+    }
+
+    public static void removeRemote(String name) {
+        if (RepositorySession.get().remotes().remove(name) == null) {
+            System.out.println("A remote with that name does not exist.");
         }
-        return answer;
     }
 
-    private static String splitAncestor(Commit c1, Commit c2) {
-        return "YEET";
+    /** copies the head commit and the history it needs to the branch REMOTEBRANCH
+     * of the remote REMOTENAME, see Remote */
+    public static void push(String remoteName, String remoteBranch) {
+        Remote.push(remoteName, remoteBranch);
+    }
+
+    /** copies the branch REMOTEBRANCH of the remote REMOTENAME and the history it
+     * needs into the branch REMOTENAME/REMOTEBRANCH, see Remote */
+    public static void fetch(String remoteName, String remoteBranch) {
+        Remote.fetch(remoteName, remoteBranch);
+    }
+
+    public static void pull(String remoteName, String remoteBranch) {
+        if (Remote.fetch(remoteName, remoteBranch)) {
+            merge(remoteName + "/" + remoteBranch);
+        }
+    }
+
+    /** deletes the objects no branch can reach that are older than GRACEDAYS
+     * days, or only reports them if DRYRUN */
+    public static void gc(int graceDays, boolean dryRun) {
+        GarbageCollector.run(graceDays, dryRun);
+    }
+
+
+    /** returns the full id of the commit abbreviated as SHORTIDCOMMIT, found with
+     * a binary search of the commit index, or SHORTIDCOMMIT itself if no commit
+     * matches. returns null and reports it if more than one commit matches */
+    private static String uidHelper(String shortIdcommit) {
+        List<String> matches = CommitIndex.resolve(shortIdcommit, 2);
+        if (matches.size() > 1) {
+            System.out.println("Ambiguous commit id.");
+            return null;
+        }
+        if (matches.isEmpty()) {
+            return shortIdcommit;
+        }
+        return matches.get(0);
     }
 
     private static boolean totalCompare(String s1, String s2) {
@@ -0,0 +1,658 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static gitlet.Utils.*;
+
+/** The mutable state of the repository for the duration of one command:
+ *  the head branch, the branches, the two halves of the staging area, the
+ *  head commit and the Index.  Each part is read from disk the first time
+ *  it is needed and kept for the rest of the command, and changes are only
+ *  made in memory.  At the end of a successful command, flush writes back
+ *  the parts that differ from what was read.
+ *
+ *  Each branch is a file of its own in REFS holding the id of its commit,
+ *  so reading one branch does not read them all.  Other commands, in this
+ *  process or others, may change the repository while ours runs, so flush
+ *  takes the LockFile of every branch it moves and of the rest of the
+ *  state before writing.  A branch is only moved if it still points where
+ *  it did when we read it (compare and swap); otherwise the command fails.
+ *  Commands that change the working tree (checkout, reset and merge) cannot
+ *  take that back, so they call lockHead before touching it: it takes the
+ *  locks of the head branch and the state for the rest of the command and
+ *  fails if another command got there first, and their flush then cannot.
+ *  Changes to the staging area and the remotes are applied entry by entry
+ *  on top of what is on disk then, so two commands staging different
+ *  files both keep theirs.  Commits on different branches take different
+ *  locks and never clobber each other.  Objects are written without any
+ *  lock: they are named by their contents, so writing one twice is
+ *  harmless.
+ *
+ *  The write-back is all or nothing.  Every changed file is first written
+ *  next to its target with a ".new" suffix (an empty one for a deleted
+ *  branch), then the list of targets is written to a journal of this
+ *  flush, and only then are the new files renamed over the old ones.  If
+ *  the process dies after the journal exists, the next session takes the
+ *  same locks and finishes the renames; if it dies before, the new files
+ *  are left to be overwritten.  A command that fails leaves nothing behind
+ *  at all.
+ *
+ *  The parts as read are also kept, for as long as their files are not
+ *  replaced, in STATE_CACHE, so a process that runs many commands (see
+ *  Daemon) reads each file only once per change.
+ *
+ *  @author Anthony Zhang
+ */
+class RepositorySession {
+
+    /** Start of the names of the journals, each listing the files a flush
+     *  is renaming into place. */
+    private static final String JOURNAL_PREFIX = "session-journal";
+    /** Suffix of a file waiting to replace the one without it. */
+    private static final String NEW_SUFFIX = ".new";
+    /** Number of journals this process has written, which names the next. */
+    private static final AtomicLong JOURNALS = new AtomicLong();
+
+    /** The state files as last read, with the stamp they had then.  A
+     *  flush renames new files over the old ones, so a changed file never
+     *  keeps its stamp. */
+    private static final Map<File, Cached> STATE_CACHE = new ConcurrentHashMap<>();
+
+    /** The session of the command running on each thread. */
+    private static final ThreadLocal<RepositorySession> CURRENT = new ThreadLocal<>();
+
+    /** The name of the head branch, and as it was read. */
+    private String headBranch;
+    private String savedHeadBranch;
+    /** Branch names to commit ids, null for no such branch, and as they
+     *  were read, for the branches read so far. */
+    private final TreeMap<String, String> branches = new TreeMap<>();
+    private final TreeMap<String, String> savedBranches = new TreeMap<>();
+    /** True iff every branch has been read. */
+    private boolean allBranches;
+    /** Files staged for addition, to blob ids, and as they were read. */
+    private TreeMap<String, String> stagedForAddition;
+    private TreeMap<String, String> savedStagedForAddition;
+    /** Files staged for removal, and as they were read. */
+    private TreeMap<String, String> stagedForRemoval;
+    private TreeMap<String, String> savedStagedForRemoval;
+    /** Remote names to the paths of their .gitlet directories, and as they
+     *  were read. */
+    private TreeMap<String, String> remotes;
+    private TreeMap<String, String> savedRemotes;
+    /** The commit the head branch points to, or null if not yet read. */
+    private Commit headCommit;
+    /** The working-tree index, or null if not yet read. */
+    private Index index;
+    /** The locks taken by lockHead, held until the session ends, or null. */
+    private List<LockFile> headLocks;
+
+    /** Starts the session of a command on this thread, first completing or
+     *  discarding the write-back of one that was interrupted. */
+    static RepositorySession begin() {
+        if (Repository.GITLET_DIR.isDirectory()) {
+            recover();
+            upgradeBranches();
+        }
+        RepositorySession session = new RepositorySession();
+        CURRENT.set(session);
+        return session;
+    }
+
+    /** Returns the session of the command running on this thread. */
+    static RepositorySession get() {
+        RepositorySession session = CURRENT.get();
+        if (session == null) {
+            throw error("No repository session.");
+        }
+        return session;
+    }
+
+    /** Ends this session, writing back its changes first iff FLUSH. */
+    void end(boolean flush) {
+        try {
+            if (flush) {
+                flush();
+            }
+        } finally {
+            CURRENT.remove();
+            if (headLocks != null) {
+                unlock(headLocks);
+            }
+        }
+    }
+
+    /** Starts the state of a new repository: no branches and nothing staged.
+     *  Nothing is read from disk. */
+    void initialize() {
+        allBranches = true;
+        stagedForAddition = new TreeMap<>();
+        stagedForRemoval = new TreeMap<>();
+    }
+
+    /** Returns the name of the head branch. */
+    String headBranch() {
+        if (headBranch == null && savedHeadBranch == null) {
+            savedHeadBranch = readState(Repository.HEADBRANCH, String.class);
+            headBranch = savedHeadBranch;
+        }
+        return headBranch;
+    }
+
+    /** Makes NAME the head branch. */
+    void setHeadBranch(String name) {
+        headBranch = name;
+        headCommit = null;
+    }
+
+    /** Returns the branches, by name, as a read-only map. */
+    SortedMap<String, String> branches() {
+        if (!allBranches) {
+            List<String> names = plainFilenamesIn(Repository.REFS);
+            for (String name : names == null ? new ArrayList<String>() : names) {
+                if (!name.contains(".")) {
+                    branch(branchName(name));
+                }
+            }
+            allBranches = true;
+        }
+        TreeMap<String, String> result = new TreeMap<>(branches);
+        result.values().removeIf(Objects::isNull);
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    /** Returns the id of the commit the branch NAME points to, or null if
+     *  there is no such branch. */
+    String branch(String name) {
+        if (!branches.containsKey(name)) {
+            String id = allBranches ? null : readRef(refFile(name));
+            branches.put(name, id);
+            savedBranches.put(name, id);
+        }
+        return branches.get(name);
+    }
+
+    /** Points the branch NAME, which need not exist yet, at the commit ID. */
+    void setBranch(String name, String id) {
+        branch(name);
+        branches.put(name, id);
+        headCommit = null;
+    }
+
+    /** Deletes the branch NAME. */
+    void removeBranch(String name) {
+        branch(name);
+        branches.put(name, null);
+    }
+
+    /** Returns the id of the commit the head branch points to. */
+    String headCommitId() {
+        return branch(headBranch());
+    }
+
+    /** Returns the commit the head branch points to. */
+    Commit headCommit() {
+        if (headCommit == null) {
+            headCommit = CommitStore.get(headCommitId());
+        }
+        return headCommit;
+    }
+
+    /** Returns the files staged for addition, mapped to their blob ids.
+     *  Changes to the map are written back by flush. */
+    TreeMap<String, String> stagedForAddition() {
+        if (stagedForAddition == null) {
+            savedStagedForAddition = readMap(Repository.STAGING_AREA_ADD);
+            stagedForAddition = new TreeMap<>(savedStagedForAddition);
+        }
+        return stagedForAddition;
+    }
+
+    /** Returns the files staged for removal.  Changes to the map are written
+     *  back by flush. */
+    TreeMap<String, String> stagedForRemoval() {
+        if (stagedForRemoval == null) {
+            savedStagedForRemoval = readMap(Repository.STAGING_AREA_RM);
+            stagedForRemoval = new TreeMap<>(savedStagedForRemoval);
+        }
+        return stagedForRemoval;
+    }
+
+    /** Unstages everything. */
+    void clearStaging() {
+        stagedForAddition().clear();
+        stagedForRemoval().clear();
+    }
+
+    /** Returns the remotes, mapping their names to the paths of their
+     *  .gitlet directories.  Changes to the map are written back by flush. */
+    TreeMap<String, String> remotes() {
+        if (remotes == null) {
+            /** repositories older than remotes have no file for them */
+            savedRemotes = Repository.REMOTES.exists()
+                    ? readMap(Repository.REMOTES) : new TreeMap<>();
+            remotes = new TreeMap<>(savedRemotes);
+        }
+        return remotes;
+    }
+
+    /** Takes the locks of the head branch and of the rest of the state for
+     *  the rest of this session, so that no other command can move the head
+     *  branch or change the state until we have written ours.  Fails if one
+     *  did so since we read them.  A command that calls this must not move
+     *  any other branch, whose lock would be taken out of order. */
+    void lockHead() {
+        if (headLocks != null) {
+            return;
+        }
+        String name = headBranch();
+        branch(name);
+        headLocks = lock(new TreeSet<>(Arrays.asList(LockFile.branch(name), LockFile.STATE)));
+        if (!Objects.equals(readStateIfExists(Repository.HEADBRANCH, String.class),
+                            savedHeadBranch)) {
+            throw error("The head branch was changed by another command.");
+        }
+        if (!Objects.equals(readRef(refFile(name)), savedBranches.get(name))) {
+            throw error("Branch %s was moved by another command.", name);
+        }
+    }
+
+    /** Returns the working-tree index. */
+    Index index() {
+        if (index == null) {
+            index = Index.load();
+        }
+        return index;
+    }
+
+    /** Writes back every part of the state that changed, all or nothing,
+     *  under the locks of the parts, and then the Index.  Fails, writing
+     *  nothing, if another command moved one of the branches we move or
+     *  changed the head branch we change. */
+    void flush() {
+        try (Stats.Phase phase = Stats.phase("flush")) {
+            flushState();
+            /** only once the state is written, so a command that failed
+             * there leaves no trace */
+            if (index != null) {
+                index.save();
+            }
+        }
+    }
+
+    /** Writes back the branches, head branch, staging area and remotes that
+     *  changed, as flush. */
+    private void flushState() {
+        List<String> moved = new ArrayList<>();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            if (!Objects.equals(branch.getValue(), savedBranches.get(branch.getKey()))) {
+                moved.add(branch.getKey());
+            }
+        }
+        boolean stateChanged = headBranch != null && !headBranch.equals(savedHeadBranch)
+            || stagedForAddition != null && !stagedForAddition.equals(savedStagedForAddition)
+            || stagedForRemoval != null && !stagedForRemoval.equals(savedStagedForRemoval)
+            || remotes != null && !remotes.equals(savedRemotes);
+        if (moved.isEmpty() && !stateChanged) {
+            return;
+        }
+        TreeSet<String> lockNames = new TreeSet<>();
+        for (String name : moved) {
+            lockNames.add(LockFile.branch(name));
+        }
+        if (stateChanged) {
+            lockNames.add(LockFile.STATE);
+        }
+        List<LockFile> locks = lock(lockNames);
+        try {
+            Map<File, byte[]> changed = new LinkedHashMap<>();
+            for (String name : moved) {
+                File file = refFile(name);
+                if (!Objects.equals(readRef(file), savedBranches.get(name))) {
+                    throw error("Branch %s was moved by another command.", name);
+                }
+                String id = branches.get(name);
+                changed.put(file, id == null ? new byte[0] : id.getBytes(StandardCharsets.UTF_8));
+            }
+            if (stateChanged) {
+                mergeState(changed);
+            }
+            write(changed);
+        } finally {
+            unlock(locks);
+        }
+        savedBranches.putAll(branches);
+        savedHeadBranch = headBranch;
+        savedStagedForAddition =
+                stagedForAddition == null ? null : new TreeMap<>(stagedForAddition);
+        savedStagedForRemoval =
+                stagedForRemoval == null ? null : new TreeMap<>(stagedForRemoval);
+        savedRemotes = remotes == null ? null : new TreeMap<>(remotes);
+    }
+
+    /** Adds to CHANGED the new contents of the head branch, staging area and
+     *  remotes that changed, each applied to what is on disk now.  The state
+     *  lock must be held. */
+    private void mergeState(Map<File, byte[]> changed) {
+        if (headBranch != null && !headBranch.equals(savedHeadBranch)) {
+            if (!Objects.equals(readStateIfExists(Repository.HEADBRANCH, String.class),
+                                savedHeadBranch)) {
+                throw error("The head branch was changed by another command.");
+            }
+            changed.put(Repository.HEADBRANCH, serialize(headBranch));
+        }
+        if (stagedForAddition != null && !stagedForAddition.equals(savedStagedForAddition)) {
+            stagedForAddition = merge(savedStagedForAddition, stagedForAddition,
+                    Repository.STAGING_AREA_ADD);
+            changed.put(Repository.STAGING_AREA_ADD, serialize(stagedForAddition));
+        }
+        if (stagedForRemoval != null && !stagedForRemoval.equals(savedStagedForRemoval)) {
+            stagedForRemoval = merge(savedStagedForRemoval, stagedForRemoval,
+                    Repository.STAGING_AREA_RM);
+            changed.put(Repository.STAGING_AREA_RM, serialize(stagedForRemoval));
+        }
+        if (remotes != null && !remotes.equals(savedRemotes)) {
+            remotes = merge(savedRemotes, remotes, Repository.REMOTES);
+            changed.put(Repository.REMOTES, serialize(remotes));
+        }
+    }
+
+    /** Returns the map in FILE with the changes from SAVED to OURS applied
+     *  to it, except to the keys that another command changed since we read
+     *  SAVED (null if FILE did not exist), which keep their values. */
+    @SuppressWarnings("unchecked")
+    private static TreeMap<String, String> merge(TreeMap<String, String> saved,
+                                                 TreeMap<String, String> ours, File file) {
+        TreeMap<String, String> theirs = readStateIfExists(file, TreeMap.class);
+        TreeMap<String, String> base = saved == null ? new TreeMap<>() : saved;
+        TreeMap<String, String> result =
+                theirs == null ? new TreeMap<>() : new TreeMap<>(theirs);
+        TreeSet<String> keys = new TreeSet<>(base.keySet());
+        keys.addAll(ours.keySet());
+        for (String key : keys) {
+            String value = ours.get(key);
+            if (Objects.equals(base.get(key), value)
+                    || !Objects.equals(base.get(key), result.get(key))) {
+                continue;
+            }
+            if (value == null) {
+                result.remove(key);
+            } else {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /** Writes each file in CHANGED with its new contents, deleting those
+     *  whose new contents are empty, all or nothing.  The locks of the
+     *  files must be held. */
+    private static void write(Map<File, byte[]> changed) {
+        Repository.REFS.mkdir();
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<File, byte[]> part : changed.entrySet()) {
+            writeDurably(newFile(part.getKey()), part.getValue());
+            names.add(Repository.GITLET_DIR.toPath().relativize(part.getKey().toPath())
+                      .toString());
+        }
+        File journal = join(Repository.GITLET_DIR, JOURNAL_PREFIX + "."
+                + ProcessHandle.current().pid() + "." + JOURNALS.incrementAndGet());
+        writeDurably(newFile(journal), String.join("\n", names).getBytes(StandardCharsets.UTF_8));
+        move(newFile(journal), journal);
+        for (File target : changed.keySet()) {
+            install(target);
+            STATE_CACHE.remove(target);
+        }
+        journal.delete();
+    }
+
+    /** Returns the file holding the branch NAME. */
+    private static File refFile(String name) {
+        return join(Repository.REFS, refName(name));
+    }
+
+    /** Returns the name of the file holding the branch NAME: NAME with every
+     *  character but ASCII letters, digits, '-' and '_' written as '%' and
+     *  the two hexadecimal digits of each of its UTF-8 bytes.  Branch names
+     *  such as "origin/master" thus make plain file names, none of which
+     *  contains a '.'. */
+    static String refName(String name) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xff;
+            if (c < 0x80 && (Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+                result.append((char) c);
+            } else {
+                result.append('%').append(Character.forDigit(c >>> 4, 16))
+                      .append(Character.forDigit(c & 0xf, 16));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Returns the name of the branch held by the file FILENAME. */
+    private static String branchName(String fileName) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (int i = 0; i < fileName.length(); i += 1) {
+            if (fileName.charAt(i) == '%') {
+                result.write(Integer.parseInt(fileName.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                result.write(fileName.charAt(i));
+            }
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Returns the commit id in the branch file FILE, from STATE_CACHE unless
+     *  the file has changed, or null if there is no such file. */
+    private static String readRef(File file) {
+        Object stamp = stamp(file);
+        if (stamp == null) {
+            return null;
+        }
+        Cached cached = STATE_CACHE.get(file);
+        if (cached != null && stamp.equals(cached.stamp)) {
+            return (String) cached.value;
+        }
+        String id = readContentsAsString(file);
+        STATE_CACHE.put(file, new Cached(stamp, id));
+        return id;
+    }
+
+    /** Moves the branches of a repository older than REFS out of the single
+     *  BRANCHES file into a file each.  They are written to a directory of
+     *  their own that is then renamed to REFS, so other commands see either
+     *  the old branches or all of the new ones. */
+    @SuppressWarnings("unchecked")
+    private static void upgradeBranches() {
+        if (Repository.REFS.isDirectory() || !Repository.BRANCHES.exists()) {
+            return;
+        }
+        try (LockFile lock = LockFile.acquire(LockFile.STATE)) {
+            if (Repository.REFS.isDirectory()) {
+                return;
+            }
+            File dir = join(Repository.GITLET_DIR, "refs." + ProcessHandle.current().pid());
+            dir.mkdir();
+            TreeMap<String, String> old = readObject(Repository.BRANCHES, TreeMap.class);
+            for (Map.Entry<String, String> branch : old.entrySet()) {
+                writeDurably(join(dir, refName(branch.getKey())),
+                        branch.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            move(dir, Repository.REFS);
+            Repository.BRANCHES.delete();
+        }
+    }
+
+    /** Returns the contents of the state file FILE as an object of class
+     *  EXPECTEDCLASS, from STATE_CACHE unless the file has changed.  The
+     *  object may be shared with other sessions and must not be changed. */
+    private static <T extends Serializable> T readState(File file, Class<T> expectedClass) {
+        Object stamp = stamp(file);
+        Cached cached = STATE_CACHE.get(file);
+        if (cached != null && stamp != null && stamp.equals(cached.stamp)) {
+            return expectedClass.cast(cached.value);
+        }
+        T value = readObject(file, expectedClass);
+        if (stamp != null) {
+            STATE_CACHE.put(file, new Cached(stamp, value));
+        }
+        return value;
+    }
+
+    /** Returns the map of strings in the state file FILE, as readState. */
+    @SuppressWarnings("unchecked")
+    private static TreeMap<String, String> readMap(File file) {
+        return readState(file, TreeMap.class);
+    }
+
+    /** Returns the contents of the state file FILE as an object of class
+     *  EXPECTEDCLASS, read afresh, or null if there is no such file. */
+    private static <T extends Serializable> T readStateIfExists(File file,
+                                                                Class<T> expectedClass) {
+        return file.exists() ? readObject(file, expectedClass) : null;
+    }
+
+    /** Returns what identifies this version of FILE: its file key, time of
+     *  last change and size, or null if it cannot be read. */
+    static Object stamp(File file) {
+        Stats.statted();
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return Arrays.asList(attrs.fileKey(), attrs.lastModifiedTime(), attrs.size());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Finishes the renames of every flush that was interrupted after
+     *  writing its journal.  A flush still running holds the locks of its
+     *  files, so we take them first and wait for it. */
+    private static void recover() {
+        String[] journals = Repository.GITLET_DIR.list((dir, name) ->
+                name.startsWith(JOURNAL_PREFIX) && !name.endsWith(NEW_SUFFIX));
+        for (String name : journals == null ? new String[0] : journals) {
+            File journal = join(Repository.GITLET_DIR, name);
+            List<File> targets = new ArrayList<>();
+            TreeSet<String> lockNames = new TreeSet<>();
+            try {
+                for (String target : readContentsAsString(journal).split("\n")) {
+                    File file = join(Repository.GITLET_DIR, target);
+                    targets.add(file);
+                    lockNames.add(file.getParentFile().equals(Repository.REFS)
+                            ? LockFile.branch(branchName(file.getName())) : LockFile.STATE);
+                }
+            } catch (IllegalArgumentException excp) {
+                /** the flush finished while we looked */
+                continue;
+            }
+            List<LockFile> locks = lock(lockNames);
+            try {
+                if (journal.exists()) {
+                    for (File target : targets) {
+                        install(target);
+                    }
+                    journal.delete();
+                }
+            } finally {
+                unlock(locks);
+            }
+        }
+    }
+
+    /** Takes the locks NAMES, in order, and returns them.  Every command
+     *  takes its locks in the order of their names, so no two commands can
+     *  each wait for a lock the other holds. */
+    private static List<LockFile> lock(TreeSet<String> names) {
+        List<LockFile> locks = new ArrayList<>();
+        try {
+            for (String name : names) {
+                locks.add(LockFile.acquire(name));
+            }
+        } catch (RuntimeException excp) {
+            unlock(locks);
+            throw excp;
+        }
+        return locks;
+    }
+
+    /** Gives up LOCKS, in the reverse order. */
+    private static void unlock(List<LockFile> locks) {
+        for (int i = locks.size() - 1; i >= 0; i -= 1) {
+            locks.get(i).close();
+        }
+    }
+
+    /** Puts the new version of TARGET in its place, deleting TARGET instead
+     *  if the new version is empty.  Does nothing if there is none. */
+    private static void install(File target) {
+        File file = newFile(target);
+        if (!file.exists()) {
+            return;
+        }
+        if (file.length() == 0) {
+            target.delete();
+            file.delete();
+        } else {
+            move(file, target);
+        }
+    }
+
+    /** Returns the file that waits to replace TARGET. */
+    private static File newFile(File target) {
+        return new File(target.getPath() + NEW_SUFFIX);
+    }
+
+    /** Writes CONTENTS to FILE and forces them to the disk. */
+    private static void writeDurably(File file, byte[] contents) {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(contents);
+            out.getFD().sync();
+            Stats.wrote(contents.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Renames FROM to TO, replacing TO. */
+    private static void move(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A state file's contents as read, and the stamp the file had. */
+    private static class Cached {
+        private final Object stamp;
+        private final Serializable value;
+
+        Cached(Object stamp, Serializable value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+}
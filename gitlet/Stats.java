@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Counts the work commands do and times the phases of each command.
+ *
+ *  The counters are the bytes read from and written to files, the objects
+ *  decoded, the SHA-1 hashes computed and the files stat'ed.  They are
+ *  bumped where the work happens (Utils, BlobStore, Pack, Index and so
+ *  on), on whatever thread does it, so while a Daemon runs commands side by
+ *  side the counts of each include the others'.  Memory-mapped indexes are
+ *  not counted as read, since only the pages touched are.
+ *
+ *  A phase is a named part of a command, timed by a Phase opened in a
+ *  try-with-resources statement on the command's thread.  Every command
+ *  and every phase is also a JFR event (gitlet.Command, gitlet.Phase), so a
+ *  recording made with -XX:StartFlightRecording shows them next to the
+ *  JVM's own events.  Unless the JVM has a flight recorder, which it only
+ *  has once a recording was started, the events are not even created, so
+ *  that JFR is not loaded into every command.
+ *  "gitlet --stats COMMAND ..." prints a JSON summary of the command, with
+ *  the milliseconds spent in each phase, after the command's own output.
+ *
+ *  @author Anthony Zhang
+ */
+class Stats {
+
+    /** The counters, for all commands together. */
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static final LongAdder OBJECTS_DECODED = new LongAdder();
+    private static final LongAdder HASHES = new LongAdder();
+    private static final LongAdder FILES_STATTED = new LongAdder();
+
+    /** The command running on each thread. */
+    private static final ThreadLocal<Stats> CURRENT = new ThreadLocal<>();
+
+    /** The name of the command. */
+    private final String command;
+    /** When it started, in nanoseconds. */
+    private final long start = System.nanoTime();
+    /** The counters when it started. */
+    private final long[] before = counters();
+    /** Nanoseconds spent in each phase so far, in the order they started. */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    /** The JFR event of the whole command, or null if nothing records it. */
+    private final CommandEvent event;
+
+    private Stats(String command) {
+        this.command = command;
+        event = recording() ? new CommandEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+    }
+
+    /** Starts counting the command COMMAND on this thread. */
+    static Stats begin(String command) {
+        Stats stats = new Stats(command);
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    /** Finishes counting this command, committing its JFR event, and prints
+     *  its summary iff PRINT. */
+    void end(boolean print) {
+        CURRENT.remove();
+        long elapsed = System.nanoTime() - start;
+        long[] counts = counters();
+        for (int i = 0; i < counts.length; i += 1) {
+            counts[i] -= before[i];
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.bytesRead = counts[0];
+                event.bytesWritten = counts[1];
+                event.objectsDecoded = counts[2];
+                event.hashes = counts[3];
+                event.filesStatted = counts[4];
+                event.commit();
+            }
+        }
+        if (print) {
+            System.out.println(json(elapsed, counts));
+        }
+    }
+
+    /** Returns the summary of this command, which took ELAPSED nanoseconds
+     *  and did COUNTS, as one line of JSON. */
+    private String json(long elapsed, long[] counts) {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format(Locale.ROOT, "{\"command\":%s,\"ms\":%.3f,"
+                + "\"bytesRead\":%d,\"bytesWritten\":%d,\"objectsDecoded\":%d,"
+                + "\"hashes\":%d,\"filesStatted\":%d,\"phases\":{", quote(command),
+                elapsed / 1e6, counts[0], counts[1], counts[2], counts[3], counts[4]));
+        String separator = "";
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                result.append(String.format(Locale.ROOT, "%s%s:%.3f", separator,
+                        quote(phase.getKey()), phase.getValue() / 1e6));
+                separator = ",";
+            }
+        }
+        return result.append("}}").toString();
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** Returns true iff the JVM has a flight recorder, which may be
+     *  recording our events. */
+    private static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    /** Returns the current values of the counters. */
+    private static long[] counters() {
+        return new long[] {BYTES_READ.sum(), BYTES_WRITTEN.sum(), OBJECTS_DECODED.sum(),
+                           HASHES.sum(), FILES_STATTED.sum()};
+    }
+
+    /** Counts BYTES read from a file. */
+    static void read(long bytes) {
+        BYTES_READ.add(bytes);
+    }
+
+    /** Counts BYTES written to a file. */
+    static void wrote(long bytes) {
+        BYTES_WRITTEN.add(bytes);
+    }
+
+    /** Counts one commit, tree or state file decoded. */
+    static void decoded() {
+        OBJECTS_DECODED.increment();
+    }
+
+    /** Counts one SHA-1 hash computed. */
+    static void hashed() {
+        HASHES.increment();
+    }
+
+    /** Counts one file whose attributes were read. */
+    static void statted() {
+        FILES_STATTED.increment();
+    }
+
+    /** Returns IN, counting what is read from it. */
+    static InputStream counting(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) {
+                    Stats.read(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    Stats.read(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /** Returns OUT, counting what is written to it. */
+    static OutputStream counting(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                wrote(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                wrote(len);
+            }
+        };
+    }
+
+    /** Starts the phase NAME of the command running on this thread. */
+    static Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /** A phase of a command, which ends when it is closed. */
+    static class Phase implements AutoCloseable {
+        /** The name of the phase. */
+        private final String name;
+        /** When it started, in nanoseconds. */
+        private final long start = System.nanoTime();
+        /** Its JFR event, or null if nothing records it. */
+        private final PhaseEvent event;
+
+        private Phase(String name) {
+            this.name = name;
+            event = recording() ? new PhaseEvent() : null;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            Stats stats = CURRENT.get();
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.command = stats == null ? null : stats.command;
+                    event.phase = name;
+                    event.commit();
+                }
+            }
+            if (stats != null) {
+                synchronized (stats.phases) {
+                    stats.phases.merge(name, elapsed, Long::sum);
+                }
+            }
+        }
+    }
+
+    /** The JFR event of one command. */
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    @Description("One gitlet command and the work it did")
+    static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+        @Label("Objects Decoded")
+        long objectsDecoded;
+        @Label("Hashes")
+        long hashes;
+        @Label("Files Stat'ed")
+        long filesStatted;
+    }
+
+    /** The JFR event of one phase of a command. */
+    @Name("gitlet.Phase")
+    @Label("Gitlet Phase")
+    @Category("Gitlet")
+    @Description("A named part of a gitlet command")
+    static class PhaseEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Phase")
+        String phase;
+    }
+}
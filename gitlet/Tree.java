@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A content-addressed directory listing.  Each entry maps a name to the id
+ *  of a blob (a file) or of another Tree (a subdirectory).  A commit names
+ *  the root tree of its files, so a commit that changes one file writes new
+ *  trees only along that file's path and shares every other tree with its
+ *  parent; comparing two commits can skip any subtree whose id is the same
+ *  on both sides.
+ *
+ *  @author Anthony Zhang
+ */
+class Tree {
+
+    /** Starts every encoded tree ("GTRE"). */
+    private static final int MAGIC = 0x47545245;
+    /** Version of the encoding. */
+    private static final int VERSION = 1;
+    /** Separates the components of a path. */
+    private static final String SEPARATOR = "/";
+    /** Number of decoded trees kept in memory. */
+    private static final int CACHE_SIZE = 1024;
+
+    /** Recently read trees, by id.  Trees never change, so this is safe. */
+    private static final Map<String, Tree> CACHE =
+        new LinkedHashMap<String, Tree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /** The entries of this tree, by name. */
+    private final TreeMap<String, Entry> entries;
+
+    /** A tree with ENTRIES. */
+    private Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Returns the id of the root tree of FILES, which maps paths to blob
+     *  ids, storing whatever trees do not exist yet. */
+    static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /** Returns the id of the root tree that results from applying CHANGES to
+     *  the tree ROOTID (null for an empty tree) and stores the new trees.
+     *  CHANGES maps paths to new blob ids, or to null for removed files.
+     *  Only the trees on the paths of CHANGES are read or written. */
+    static String update(String rootId, Map<String, String> changes) {
+        String result = updateTree(rootId, new TreeMap<>(changes));
+        if (result == null) {
+            result = store(new TreeMap<>());
+        }
+        return result;
+    }
+
+    /** Returns all files under the tree ROOTID, mapping paths to blob ids. */
+    static TreeMap<String, String> flatten(String rootId) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(rootId, "", result);
+        return result;
+    }
+
+    /** Returns the blob id of the file PATH under the tree ROOTID, or null if
+     *  there is no such file. */
+    static String lookup(String rootId, String path) {
+        String[] parts = path.split(SEPARATOR);
+        Tree tree = read(rootId);
+        for (int i = 0; i < parts.length; i += 1) {
+            Entry entry = tree.entries.get(parts[i]);
+            if (entry == null) {
+                return null;
+            } else if (i == parts.length - 1) {
+                return entry.isTree ? null : entry.id;
+            } else if (!entry.isTree) {
+                return null;
+            }
+            tree = read(entry.id);
+        }
+        return null;
+    }
+
+    /** Returns the files that differ between the trees FROMID and TOID, by
+     *  path.  Subtrees with the same id on both sides are not read. */
+    static TreeMap<String, Change> diff(String fromId, String toId) {
+        TreeMap<String, Change> result = new TreeMap<>();
+        diff(fromId, toId, "", result);
+        return result;
+    }
+
+    /** Adds the tree ROOTID and every tree under it to TREES, and the blobs
+     *  of their files to BLOBS.  Trees already in TREES are not read again,
+     *  so marking many commits reads each shared tree once. */
+    static void mark(String rootId, Set<String> trees, Set<String> blobs) {
+        if (!trees.add(rootId)) {
+            return;
+        }
+        for (Entry entry : read(rootId).entries.values()) {
+            if (entry.isTree) {
+                mark(entry.id, trees, blobs);
+            } else {
+                blobs.add(entry.id);
+            }
+        }
+    }
+
+    /** A file that differs between two trees. */
+    static class Change {
+        /** The file's blob id in the first tree, or null if it is absent. */
+        final String before;
+        /** The file's blob id in the second tree, or null if it is absent. */
+        final String after;
+
+        Change(String before, String after) {
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /** Returns the tree ID, from the cache, its loose file or the pack. */
+    static Tree read(String id) {
+        synchronized (CACHE) {
+            Tree cached = CACHE.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        File loose = join(Repository.TREES, id);
+        byte[] bytes = loose.exists() ? readContents(loose) : Pack.read(id);
+        if (bytes == null) {
+            throw error("Missing tree %s.", id);
+        }
+        Tree tree = decode(bytes);
+        Stats.decoded();
+        synchronized (CACHE) {
+            CACHE.put(id, tree);
+        }
+        return tree;
+    }
+
+    /** Applies CHANGES, whose paths are relative to the tree ID, to that tree
+     *  and returns the id of the result, or null if it is empty. */
+    private static String updateTree(String id, SortedMap<String, String> changes) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if (id != null) {
+            entries.putAll(read(id).entries);
+        }
+        TreeMap<String, TreeMap<String, String>> subdirectories = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, new Entry(false, change.getValue()));
+                }
+            } else {
+                subdirectories.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir : subdirectories.entrySet()) {
+            Entry old = entries.get(dir.getKey());
+            String newId = updateTree(old != null && old.isTree ? old.id : null, dir.getValue());
+            if (newId == null) {
+                entries.remove(dir.getKey());
+            } else {
+                entries.put(dir.getKey(), new Entry(true, newId));
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        return store(entries);
+    }
+
+    /** Adds the files under the tree ID to RESULT, prefixing their paths with
+     *  PREFIX. */
+    private static void flatten(String id, String prefix, TreeMap<String, String> result) {
+        for (Map.Entry<String, Entry> e : read(id).entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.isTree) {
+                flatten(entry.id, prefix + e.getKey() + SEPARATOR, result);
+            } else {
+                result.put(prefix + e.getKey(), entry.id);
+            }
+        }
+    }
+
+    /** Adds the differences between the trees FROMID and TOID (either may be
+     *  null for an empty tree) to RESULT, prefixing paths with PREFIX. */
+    private static void diff(String fromId, String toId, String prefix,
+                             TreeMap<String, Change> result) {
+        if (fromId != null && fromId.equals(toId)) {
+            return;
+        }
+        TreeMap<String, Entry> from = fromId == null ? new TreeMap<>() : read(fromId).entries;
+        TreeMap<String, Entry> to = toId == null ? new TreeMap<>() : read(toId).entries;
+        TreeSet<String> names = new TreeSet<>(from.keySet());
+        names.addAll(to.keySet());
+        for (String name : names) {
+            Entry a = from.get(name);
+            Entry b = to.get(name);
+            if (a != null && b != null && a.isTree == b.isTree && a.id.equals(b.id)) {
+                continue;
+            }
+            String path = prefix + name;
+            if (a != null && a.isTree && b != null && b.isTree) {
+                diff(a.id, b.id, path + SEPARATOR, result);
+                continue;
+            }
+            /** a file replaced by a directory or the other way around, or an
+             * entry present on only one side */
+            if (a != null && a.isTree) {
+                diff(a.id, null, path + SEPARATOR, result);
+            }
+            if (b != null && b.isTree) {
+                diff(null, b.id, path + SEPARATOR, result);
+            }
+            String before = a != null && !a.isTree ? a.id : null;
+            String after = b != null && !b.isTree ? b.id : null;
+            if (before != null || after != null) {
+                result.put(path, new Change(before, after));
+            }
+        }
+    }
+
+    /** Stores a tree with ENTRIES unless it already exists, returning its id. */
+    private static String store(TreeMap<String, Entry> entries) {
+        byte[] bytes = encode(entries);
+        String id = sha1(bytes);
+        File file = join(Repository.TREES, id);
+        if (!file.exists() && !Pack.contains(id)) {
+            Repository.TREES.mkdir();
+            writeContentsAtomically(file, bytes);
+        }
+        synchronized (CACHE) {
+            CACHE.put(id, new Tree(entries));
+        }
+        return id;
+    }
+
+    /** Returns the canonical encoding of a tree with ENTRIES: MAGIC, VERSION,
+     *  the number of entries and, in name order, each entry's kind, name and
+     *  raw id. */
+    private static byte[] encode(TreeMap<String, Entry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeBoolean(e.getValue().isTree);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(uidToBytes(e.getValue().id));
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the tree encoded as BYTES. */
+    private static Tree decode(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (buf.getInt() != MAGIC || buf.get() != VERSION) {
+            throw error("Unrecognized tree.");
+        }
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int n = buf.getInt(); n > 0; n -= 1) {
+            boolean isTree = buf.get() != 0;
+            byte[] name = new byte[buf.getInt()];
+            buf.get(name);
+            buf.get(id);
+            entries.put(new String(name, StandardCharsets.UTF_8),
+                    new Entry(isTree, bytesToUid(id, 0)));
+        }
+        return new Tree(entries);
+    }
+
+    /** One entry of a tree. */
+    private static class Entry {
+        /** True if this entry is a subdirectory rather than a file. */
+        private final boolean isTree;
+        /** Id of the tree or blob this entry names. */
+        private final String id;
+
+        Entry(boolean isTree, String id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+    }
+}
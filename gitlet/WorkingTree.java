@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static gitlet.Utils.*;
+
+/** Finds the files of the working directory, at any depth.  Files are
+ *  named by their path relative to the working directory with "/" between
+ *  components, which is how commits, trees, the staging area and the index
+ *  name them.  Each directory is listed by its own fork/join task, so large
+ *  trees are scanned on all cores.
+ *
+ *  The .gitlet directory is never listed, nor is anything matched by a
+ *  line of the IGNORE_FILE in the working directory.  Each line is a glob;
+ *  a glob with a "/" in it is matched against whole paths and any other
+ *  glob against names alone, and a trailing "/" makes it match only
+ *  directories.  Blank lines and lines starting with "#" are skipped.
+ *
+ *  @author Anthony Zhang
+ */
+class WorkingTree {
+
+    /** Name of the file of ignore rules in the working directory. */
+    static final String IGNORE_FILE = ".gitletignore";
+    /** Separates the components of a path. */
+    static final String SEPARATOR = "/";
+
+    /** The rules in IGNORE_FILE. */
+    private final List<Rule> rules = new ArrayList<>();
+
+    /** A walker using the ignore rules of the current working directory. */
+    private WorkingTree() {
+        File ignoreFile = join(Repository.CWD, IGNORE_FILE);
+        if (!ignoreFile.isFile()) {
+            return;
+        }
+        String text = new String(readContents(ignoreFile), StandardCharsets.UTF_8);
+        for (String line : text.split("\r?\n")) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                rules.add(new Rule(line));
+            }
+        }
+    }
+
+    /** Returns the paths of all files in the working directory, sorted. */
+    static List<String> files() {
+        return files(Repository.CWD);
+    }
+
+    /** Returns the paths, relative to the working directory, of all files
+     *  under the directory DIR, sorted. */
+    static List<String> files(File dir) {
+        try (Stats.Phase phase = Stats.phase("scan working tree")) {
+            WorkingTree walker = new WorkingTree();
+            String prefix = pathOf(dir);
+            List<String> result = ForkJoinPool.commonPool().invoke(
+                    walker.new Scan(dir.toPath(), prefix.isEmpty() ? "" : prefix + SEPARATOR));
+            Collections.sort(result);
+            return result;
+        }
+    }
+
+    /** Returns the path of FILE relative to the working directory, or null
+     *  if it is outside it. */
+    static String pathOf(File file) {
+        Path cwd = Repository.CWD.toPath().toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(cwd)) {
+            return null;
+        }
+        return cwd.relativize(path).toString().replace(File.separator, SEPARATOR);
+    }
+
+    /** Returns NAME, a file name given on the command line, as a path
+     *  relative to the working directory, or NAME itself if it is outside
+     *  it. */
+    static String normalize(String name) {
+        String path = pathOf(join(Repository.CWD, name));
+        return path == null ? name : path;
+    }
+
+    /** Makes the directories FILE, a working file about to be written,
+     *  needs. */
+    static void prepare(File file) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+    }
+
+    /** Deletes the working file FILE and then whichever of its directories
+     *  are left empty, up to the working directory. */
+    static void remove(File file) {
+        file.delete();
+        File cwd = Repository.CWD.getAbsoluteFile();
+        File dir = file.getAbsoluteFile().getParentFile();
+        while (dir != null && !dir.equals(cwd) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** Returns true iff the entry with path PATH and name NAME, a directory
+     *  iff ISDIRECTORY, is ignored. */
+    private boolean ignored(Path path, Path name, boolean isDirectory) {
+        for (Rule rule : rules) {
+            if ((isDirectory || !rule.directoriesOnly)
+                    && rule.matcher.matches(rule.wholePath ? path : name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Lists one directory, forking a Scan for each of its subdirectories. */
+    private class Scan extends RecursiveTask<List<String>> {
+        /** The directory to list. */
+        private final Path dir;
+        /** Its path relative to the working directory, followed by SEPARATOR,
+         *  or "" for the working directory itself. */
+        private final String prefix;
+
+        Scan(Path dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> result = new ArrayList<>();
+            List<Scan> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    String path = prefix + name;
+                    boolean isDirectory = Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+                    Stats.statted();
+                    if ((prefix.isEmpty() && name.equals(Repository.GITLET_DIR.getName()))
+                            || ignored(Paths.get(path), entry.getFileName(), isDirectory)) {
+                        continue;
+                    }
+                    if (isDirectory) {
+                        Scan scan = new Scan(entry, path + SEPARATOR);
+                        scan.fork();
+                        subdirectories.add(scan);
+                    } else if (Files.isRegularFile(entry)) {
+                        result.add(path);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (Scan scan : subdirectories) {
+                result.addAll(scan.join());
+            }
+            return result;
+        }
+    }
+
+    /** One line of the IGNORE_FILE. */
+    private static class Rule {
+        /** Matches the paths or names this rule ignores. */
+        private final PathMatcher matcher;
+        /** True iff the glob is matched against whole paths. */
+        private final boolean wholePath;
+        /** True iff only directories are ignored. */
+        private final boolean directoriesOnly;
+
+        Rule(String glob) {
+            directoriesOnly = glob.endsWith(SEPARATOR);
+            if (directoriesOnly) {
+                glob = glob.substring(0, glob.length() - 1);
+            }
+            wholePath = glob.contains(SEPARATOR);
+            if (glob.startsWith(SEPARATOR)) {
+                glob = glob.substring(1);
+            }
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        }
+    }
+}